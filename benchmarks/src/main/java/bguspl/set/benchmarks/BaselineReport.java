@@ -0,0 +1,57 @@
+package bguspl.set.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Runs all the benchmarks, the Table ones with 1 to 64 contending threads, and writes the results as JSON reports
+ * to ./results so runs before and after an engine change can be compared (e.g. with jmh.morethan.io).
+ *
+ * Usage: mvn -f benchmarks/pom.xml package exec:java [-Dexec.args="quick"]
+ * ("quick" runs a single short iteration of each benchmark, for checking the setup rather than for measuring).
+ */
+public class BaselineReport {
+
+    private static final int[] THREADS = {1, 2, 4, 8, 16, 32, 64};
+
+    public static void main(String[] args) throws RunnerException {
+        boolean quick = args.length > 0 && args[0].equals("quick");
+        String stamp = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss").format(new Date());
+        File directory = new File("results");
+        //noinspection ResultOfMethodCallIgnored
+        directory.mkdirs();
+
+        run(options(quick, new File(directory, stamp + "_util.json"))
+                .include(UtilBenchmark.class.getName()));
+
+        for (int threads : THREADS) {
+            run(options(quick, new File(directory, stamp + "_table_" + threads + "t.json"))
+                    .include(TableBenchmark.class.getName() + ".toggleToken$")
+                    .threads(threads));
+            // one dealer thread replacing cards, the rest are players
+            if (threads > 1)
+                run(options(quick, new File(directory, stamp + "_table_replace_" + threads + "t.json"))
+                        .include(TableBenchmark.class.getName() + ".replace")
+                        .threadGroups(1, threads - 1));
+        }
+    }
+
+    private static ChainedOptionsBuilder options(boolean quick, File report) {
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .resultFormat(ResultFormatType.JSON)
+                .result(report.getPath());
+        if (quick) options.forks(1).warmupIterations(1).measurementIterations(1);
+        return options;
+    }
+
+    private static void run(ChainedOptionsBuilder options) throws RunnerException {
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,49 @@
+package bguspl.set.benchmarks;
+
+import bguspl.set.Config;
+import bguspl.set.Env;
+import bguspl.set.HeadlessUserInterface;
+import bguspl.set.UtilImpl;
+
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * Builds game environments for the benchmarks: no logging, no table delays (unless asked for) and no user interface,
+ * so only the game engine itself is measured.
+ */
+final class BenchmarkEnv {
+
+    private BenchmarkEnv() {
+    }
+
+    /**
+     * @param featureCount - the number of features on each card.
+     * @param featureSize  - the number of choices for each feature.
+     * @param players      - the number of (computer) players.
+     * @return - a new environment with the given dimensions and a 3x4 table.
+     */
+    static Env create(int featureCount, int featureSize, int players) {
+        return create(featureCount, featureSize, players, 0);
+    }
+
+    /**
+     * @param tableDelayMillis - the delay of every card placement and removal.
+     * @return - a new environment with the given dimensions and table delay and a 3x4 table.
+     */
+    static Env create(int featureCount, int featureSize, int players, long tableDelayMillis) {
+        Properties properties = new Properties();
+        properties.setProperty("LogLevel", "OFF");
+        properties.setProperty("FeatureCount", Integer.toString(featureCount));
+        properties.setProperty("FeatureSize", Integer.toString(featureSize));
+        properties.setProperty("HumanPlayers", "0");
+        properties.setProperty("ComputerPlayers", Integer.toString(players));
+        properties.setProperty("TableDelaySeconds", Double.toString(tableDelayMillis / 1000.0));
+        properties.setProperty("Hints", "False");
+
+        Logger logger = Logger.getAnonymousLogger();
+        logger.setUseParentHandlers(false);
+        Config config = new Config(logger, properties);
+        return new Env(logger, config, new HeadlessUserInterface(), new UtilImpl(config));
+    }
+}
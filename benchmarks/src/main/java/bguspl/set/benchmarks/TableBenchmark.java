@@ -0,0 +1,178 @@
+package bguspl.set.benchmarks;
+
+import bguspl.set.Env;
+import bguspl.set.ex.Table;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the Table token and card operations under contention. The number of contending threads is chosen
+ * when running (see BaselineReport, or the -t and -tg options of the JMH command line).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TableBenchmark {
+
+    /**
+     * The maximal number of contending threads (one player per thread).
+     */
+    static final int MAX_PLAYERS = 64;
+
+    /**
+     * A table with a card in every slot, shared by all the benchmark threads.
+     */
+    @State(Scope.Benchmark)
+    public static class SharedTable {
+
+        Env env;
+        Table table;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            env = BenchmarkEnv.create(4, 3, MAX_PLAYERS);
+            table = new Table(env);
+            for (int slot = 0; slot < env.config.tableSize; slot++) table.placeCard(slot, slot);
+        }
+    }
+
+    /**
+     * The player each thread acts as, and its own slot generator.
+     */
+    @State(Scope.Thread)
+    public static class PlayerState {
+
+        int player;
+        int seed;
+
+        @Setup(Level.Trial)
+        public void setup(ThreadParams params) {
+            player = params.getThreadIndex() % MAX_PLAYERS;
+            seed = 0x9E3779B9 * (player + 1);
+        }
+
+        int nextSlot(int tableSize) {
+            // xorshift, so the slot choice does not contend or allocate
+            seed ^= seed << 13;
+            seed ^= seed >>> 17;
+            seed ^= seed << 5;
+            return (seed >>> 1) % tableSize;
+        }
+    }
+
+    /**
+     * Toggles a token on a random slot, the way Player.run handles a key press.
+     */
+    @Benchmark
+    public boolean toggleToken(SharedTable shared, PlayerState state) {
+        return toggle(shared, state);
+    }
+
+    /**
+     * A table like SharedTable, but with a delay on every card placement and removal, as in a game, so the time a
+     * replacement keeps slots away from the players is dominated by the delay rather than by the locking.
+     */
+    @State(Scope.Benchmark)
+    public static class DelayedTable extends SharedTable {
+
+        static final long DELAY_MILLIS = 1;
+
+        @Setup(Level.Trial)
+        @Override
+        public void setup() {
+            env = BenchmarkEnv.create(4, 3, MAX_PLAYERS, DELAY_MILLIS);
+            table = new Table(env);
+            for (int slot = 0; slot < env.config.tableSize; slot++) table.placeCard(slot, slot);
+        }
+    }
+
+    /**
+     * Players toggling tokens while the dealer keeps replacing sets of cards, fencing only their slots.
+     */
+    @Benchmark
+    @Group("replace")
+    @GroupThreads(3)
+    public boolean toggleTokenDuringReplace(DelayedTable shared, PlayerState state) {
+        return toggle(shared, state);
+    }
+
+    /**
+     * Replaces the cards of 3 slots the way Dealer.removeCardsFromTable does: only those slots are fenced.
+     */
+    @Benchmark
+    @Group("replace")
+    @GroupThreads(1)
+    public void replaceCards(DelayedTable shared, PlayerState state) {
+        int[] slots = threeSlots(shared.env.config.tableSize, state);
+        shared.table.fence(slots);
+        try {
+            replace(shared.table, slots);
+        } finally {
+            shared.table.unfence(slots);
+        }
+    }
+
+    /**
+     * Players toggling tokens while the dealer keeps replacing sets of cards under the table write lock.
+     */
+    @Benchmark
+    @Group("replaceLocked")
+    @GroupThreads(3)
+    public boolean toggleTokenDuringLockedReplace(DelayedTable shared, PlayerState state) {
+        return toggle(shared, state);
+    }
+
+    /**
+     * Replaces the cards of 3 slots holding the table write lock, the way the dealer did before the slot fences, for
+     * comparing the player throughput (the time players are stalled by a replacement) with the replace group.
+     */
+    @Benchmark
+    @Group("replaceLocked")
+    @GroupThreads(1)
+    public void replaceCardsLocked(DelayedTable shared, PlayerState state) {
+        int[] slots = threeSlots(shared.env.config.tableSize, state);
+        shared.table.lock.writeLock().lock();
+        try {
+            replace(shared.table, slots);
+        } finally {
+            shared.table.lock.writeLock().unlock();
+        }
+    }
+
+    private static int[] threeSlots(int tableSize, PlayerState state) {
+        int first = state.nextSlot(tableSize);
+        return new int[]{first, (first + 1) % tableSize, (first + 2) % tableSize};
+    }
+
+    private static void replace(Table table, int[] slots) {
+        Integer[] cards = new Integer[slots.length];
+        for (int i = 0; i < slots.length; i++) {
+            cards[i] = table.slotToCard(slots[i]);
+            table.removeCard(slots[i]);
+        }
+        for (int i = 0; i < slots.length; i++) table.placeCard(cards[i], slots[i]);
+    }
+
+    private static boolean toggle(SharedTable shared, PlayerState state) {
+        int slot = state.nextSlot(shared.env.config.tableSize);
+        if (shared.table.removeToken(state.player, slot)) return true;
+        shared.table.placeToken(state.player, slot);
+        return false;
+    }
+}
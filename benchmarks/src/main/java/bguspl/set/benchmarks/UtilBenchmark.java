@@ -0,0 +1,115 @@
+package bguspl.set.benchmarks;
+
+import bguspl.set.Env;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the set detection in UtilImpl over different card feature configurations and deck sizes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UtilBenchmark {
+
+    /**
+     * A fixed mix of legal and illegal sets for testSet.
+     */
+    @State(Scope.Thread)
+    public static class Candidates {
+
+        /**
+         * Feature configurations as featureCount:featureSize.
+         */
+        @Param({"4:3", "3:3", "4:4"})
+        public String features;
+
+        Env env;
+        int[][] sets;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            env = createEnv(features);
+            Random random = new Random(42);
+            sets = new int[1024][];
+            List<int[]> legal = env.util.findSets(shuffledDeck(env, random), sets.length / 2);
+            for (int i = 0; i < sets.length; i++) {
+                if (i % 2 == 0 && !legal.isEmpty()) sets[i] = legal.get((i / 2) % legal.size());
+                else sets[i] = random.ints(0, env.config.deckSize).distinct().limit(env.config.featureSize).toArray();
+            }
+        }
+    }
+
+    /**
+     * A random selection of cards to search for sets in.
+     */
+    @State(Scope.Thread)
+    public static class Cards {
+
+        @Param({"4:3", "3:3", "4:4"})
+        public String features;
+
+        /**
+         * The number of cards handed to findSets (capped by the deck size of the configuration).
+         */
+        @Param({"12", "21", "81"})
+        public int cards;
+
+        Env env;
+        List<Integer> deck;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            env = createEnv(features);
+            List<Integer> all = shuffledDeck(env, new Random(42));
+            deck = new ArrayList<>(all.subList(0, Math.min(cards, all.size())));
+        }
+    }
+
+    @Benchmark
+    public boolean testSet(Candidates state) {
+        state.next = (state.next + 1) & (state.sets.length - 1);
+        return state.env.util.testSet(state.sets[state.next]);
+    }
+
+    @Benchmark
+    public List<int[]> findAllSets(Cards state) {
+        return state.env.util.findSets(state.deck, Integer.MAX_VALUE);
+    }
+
+    @Benchmark
+    public List<int[]> findOneSet(Cards state) {
+        return state.env.util.findSets(state.deck, 1);
+    }
+
+    private static Env createEnv(String features) {
+        String[] parts = features.split(":");
+        return BenchmarkEnv.create(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), 1);
+    }
+
+    private static List<Integer> shuffledDeck(Env env, Random random) {
+        List<Integer> deck = new ArrayList<>();
+        for (int card = 0; card < env.config.deckSize; card++) deck.add(card);
+        Collections.shuffle(deck, random);
+        return deck;
+    }
+}
@@ -0,0 +1,33 @@
+package bguspl.set;
+
+/**
+ * The source of time for the game threads: the turn timeout, the player freezes and the table delays all go through
+ * it, so a game can run on the wall clock (RealTimeClock) or on a simulated one (VirtualClock).
+ */
+public interface Clock {
+
+    /**
+     * @return - the current time in milliseconds.
+     */
+    long currentTimeMillis();
+
+    /**
+     * Sleeps for the given time, like Thread.sleep.
+     *
+     * @param millis - the time to sleep in milliseconds.
+     * @throws InterruptedException - if the thread is interrupted while sleeping.
+     */
+    void sleep(long millis) throws InterruptedException;
+
+    /**
+     * Registers the current thread as a game thread whose activity keeps the time from advancing (see VirtualClock).
+     */
+    default void register() {
+    }
+
+    /**
+     * Unregisters the current thread (called when a game thread terminates).
+     */
+    default void unregister() {
+    }
+}
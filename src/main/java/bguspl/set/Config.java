@@ -46,6 +46,16 @@ public class Config {
    */
   public final int computerPlayers;
 
+  /**
+   * The number of key presses per second of each computer player (0 for as many as possible)
+   */
+  public final double computerActionsPerSecond;
+
+  /**
+   * True iff the computer players go for the sets on the table (otherwise they press random keys)
+   */
+  public final boolean computerFindsSets;
+
   /**
    * The total number of players (human + computer) in the game
    */
@@ -66,6 +76,11 @@ public class Config {
    */
   public final long turnTimeoutWarningMillis;
 
+  /**
+   * The minimal number of milliseconds between two countdown display updates while the warning is displayed
+   */
+  public final long countdownRefreshMillis;
+
   /**
    * The number of milliseconds a player gets frozen for when he scores a point
    */
@@ -86,6 +101,41 @@ public class Config {
    */
   public final long endGamePauseMillies;
 
+  /**
+   * The file the metrics are written to at the end of the game (CSV if it ends with .csv, empty for none)
+   */
+  public final String metricsFile;
+
+  /**
+   * The number of milliseconds between periodic metrics dumps (0 for a single dump at the end of the game)
+   */
+  public final long metricsDumpMillis;
+
+  /**
+   * Whether to profile the waits and holds of the table locks and the dealer's semaphore (see LockProfiler)
+   */
+  public final boolean lockProfiling;
+
+  /**
+   * The file the binary journal of the game events is written to (empty for none)
+   */
+  public final String journalFile;
+
+  /**
+   * The file of the leaderboard the finished games are added to (empty for none)
+   */
+  public final String leaderboardFile;
+
+  /**
+   * The file the game is checkpointed to and resumed from if it exists (empty for none)
+   */
+  public final String checkpointFile;
+
+  /**
+   * The number of milliseconds between checkpoints
+   */
+  public final long checkpointMillis;
+
   /**
    * The names of the players to display on the screen
    * Note: if there are more players than names, the remaining players will be called "Player 3", "Player 4", etc.
@@ -156,7 +206,7 @@ public class Config {
    * @param filename - the name of the configuration file.
    * @return - a properties object with the configuration file contents.
    */
-  private static Properties loadProperties(String filename, Logger logger) {
+  static Properties loadProperties(String filename, Logger logger) {
     Properties properties = new Properties();
 
     if (filename == null || filename.isEmpty()) logger.severe(
@@ -221,6 +271,15 @@ public class Config {
       Integer.parseInt(properties.getProperty("HumanPlayers", "2"));
     computerPlayers =
       Integer.parseInt(properties.getProperty("ComputerPlayers", "0"));
+    computerActionsPerSecond =
+      Double.parseDouble(
+        properties.getProperty("ComputerActionsPerSecond", "10")
+      );
+    computerFindsSets =
+      properties
+        .getProperty("ComputerStrategy", "random")
+        .trim()
+        .equalsIgnoreCase("sets");
     players = humanPlayers + computerPlayers;
 
     hints = Boolean.parseBoolean(properties.getProperty("Hints", "False"));
@@ -236,6 +295,13 @@ public class Config {
         ) *
         1000.0
       );
+    countdownRefreshMillis =
+      (long) (
+        Double.parseDouble(
+          properties.getProperty("CountdownRefreshSeconds", "0.1")
+        ) *
+        1000.0
+      );
     pointFreezeMillis =
       (long) (
         Double.parseDouble(properties.getProperty("PointFreezeSeconds", "1")) *
@@ -259,6 +325,23 @@ public class Config {
         1000.0
       );
 
+    // metrics settings
+    metricsFile = properties.getProperty("MetricsFile", "").trim();
+    metricsDumpMillis =
+      (long) (
+        Double.parseDouble(properties.getProperty("MetricsDumpSeconds", "0")) *
+        1000.0
+      );
+    lockProfiling = Boolean.parseBoolean(properties.getProperty("LockProfiling", "False").trim());
+    journalFile = properties.getProperty("JournalFile", "").trim();
+    leaderboardFile = properties.getProperty("LeaderboardFile", "").trim();
+    checkpointFile = properties.getProperty("CheckpointFile", "").trim();
+    checkpointMillis =
+      (long) (
+        Double.parseDouble(properties.getProperty("CheckpointSeconds", "5")) *
+        1000.0
+      );
+
     // ui settings
     String[] names = properties
       .getProperty("PlayerNames", "Player 1, Player 2")
@@ -1,5 +1,7 @@
 package bguspl.set;
 
+import java.util.Random;
+import java.util.concurrent.Executor;
 import java.util.logging.Logger;
 
 public class Env {
@@ -8,11 +10,56 @@ public class Env {
     public final Config config;
     public final UserInterface ui;
     public final Util util;
+    public final Metrics metrics;
+    public final Clock clock;
+
+    /**
+     * Runs the game threads (the players and the computer players' key generators).
+     */
+    public final Executor executor;
+
+    /**
+     * The seed of the game's random choices (the deck shuffles and the computer players' key presses).
+     */
+    public final long seed;
+
+    /**
+     * The binary journal of the game events (GameJournal.DISABLED when the game is not journaled).
+     */
+    public final GameJournal journal;
 
     public Env(Logger logger, Config config, UserInterface ui, Util util) {
+        this(logger, config, ui, util, new Metrics());
+    }
+
+    public Env(Logger logger, Config config, UserInterface ui, Util util, Metrics metrics) {
+        this(logger, config, ui, util, metrics, new RealTimeClock());
+    }
+
+    public Env(Logger logger, Config config, UserInterface ui, Util util, Metrics metrics, Clock clock) {
+        this(logger, config, ui, util, metrics, clock, task -> new Thread(task).start());
+    }
+
+    public Env(Logger logger, Config config, UserInterface ui, Util util, Metrics metrics, Clock clock,
+               Executor executor) {
+        this(logger, config, ui, util, metrics, clock, executor, new Random().nextLong());
+    }
+
+    public Env(Logger logger, Config config, UserInterface ui, Util util, Metrics metrics, Clock clock,
+               Executor executor, long seed) {
+        this(logger, config, ui, util, metrics, clock, executor, seed, GameJournal.DISABLED);
+    }
+
+    public Env(Logger logger, Config config, UserInterface ui, Util util, Metrics metrics, Clock clock,
+               Executor executor, long seed, GameJournal journal) {
         this.logger = logger;
         this.config = config;
         this.ui = ui;
         this.util = util;
+        this.metrics = metrics;
+        this.clock = clock;
+        this.executor = executor;
+        this.seed = seed;
+        this.journal = journal;
     }
 }
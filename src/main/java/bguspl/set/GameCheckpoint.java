@@ -0,0 +1,167 @@
+package bguspl.set;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * A snapshot of a game in progress: the deck in dealing order, the card in each table slot, the tokens and score of
+ * each player and the turn timer. The dealer copies its state into one (see Dealer.checkpoint) and a game can be
+ * resumed from it (see Dealer.resume).
+ *
+ * The binary format is little-endian: magic, version, seed, save time, timer value (longs for the last three), dealer
+ * ticks, deck size and the deck (shorts), table size and the card of each slot (shorts, -1 for an empty slot), number
+ * of players and for each player the score (int), the number of tokens (byte) and the slots of the tokens (shorts),
+ * and a CRC32 of all that. A default game fits in about 250 bytes.
+ *
+ * Writing goes to a temporary file that then replaces the checkpoint, so a crash while writing leaves the previous
+ * checkpoint in place.
+ */
+public class GameCheckpoint {
+
+    public static final int MAGIC = 0x53455443; // "SETC"
+    public static final int VERSION = 1;
+
+    /**
+     * The seed of the game (a resumed game shuffles with a new random source seeded by it).
+     */
+    public final long seed;
+
+    /**
+     * The clock time the checkpoint was taken at.
+     */
+    public final long savedAtMillis;
+
+    /**
+     * The turn timer value and the dealer's countdown ticks.
+     */
+    public final long timerValue;
+    public final int ticks;
+
+    /**
+     * The cards left in the deck, in the order they would have been dealt.
+     */
+    public final int[] deck;
+
+    /**
+     * The card in each slot (-1 if none).
+     */
+    public final int[] slotToCard;
+
+    /**
+     * The slots of the tokens of each player, in the order they were placed.
+     */
+    public final int[][] playerTokens;
+
+    /**
+     * The score of each player.
+     */
+    public final int[] scores;
+
+    public GameCheckpoint(long seed, long savedAtMillis, long timerValue, int ticks, int[] deck, int[] slotToCard,
+                          int[][] playerTokens, int[] scores) {
+        this.seed = seed;
+        this.savedAtMillis = savedAtMillis;
+        this.timerValue = timerValue;
+        this.ticks = ticks;
+        this.deck = deck;
+        this.slotToCard = slotToCard;
+        this.playerTokens = playerTokens;
+        this.scores = scores;
+    }
+
+    /**
+     * @return - the size of the checkpoint in bytes.
+     */
+    public int size() {
+        int size = 4 + 4 + 8 + 8 + 8 + 4 + 4 + 2 * deck.length + 4 + 2 * slotToCard.length + 4 + 4;
+        for (int[] tokens : playerTokens) size += 4 + 1 + 2 * tokens.length;
+        return size;
+    }
+
+    /**
+     * Encodes the checkpoint into a new buffer, positioned at its start.
+     */
+    public ByteBuffer encode() {
+        ByteBuffer buffer = ByteBuffer.allocate(size()).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(seed).putLong(savedAtMillis).putLong(timerValue).putInt(ticks);
+        buffer.putInt(deck.length);
+        for (int card : deck) buffer.putShort((short) card);
+        buffer.putInt(slotToCard.length);
+        for (int card : slotToCard) buffer.putShort((short) card);
+        buffer.putInt(scores.length);
+        for (int player = 0; player < scores.length; player++) {
+            buffer.putInt(scores[player]).put((byte) playerTokens[player].length);
+            for (int slot : playerTokens[player]) buffer.putShort((short) slot);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Decodes a checkpoint.
+     *
+     * @throws IOException - if the buffer does not hold a valid checkpoint.
+     */
+    public static GameCheckpoint decode(ByteBuffer buffer) throws IOException {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            int start = buffer.position();
+            if (buffer.getInt() != MAGIC) throw new IOException("not a game checkpoint");
+            int version = buffer.getInt();
+            if (version != VERSION) throw new IOException("unsupported checkpoint version " + version);
+            long seed = buffer.getLong();
+            long savedAtMillis = buffer.getLong();
+            long timerValue = buffer.getLong();
+            int ticks = buffer.getInt();
+            int[] deck = new int[buffer.getInt()];
+            for (int i = 0; i < deck.length; i++) deck[i] = buffer.getShort();
+            int[] slotToCard = new int[buffer.getInt()];
+            for (int i = 0; i < slotToCard.length; i++) slotToCard[i] = buffer.getShort();
+            int[] scores = new int[buffer.getInt()];
+            int[][] playerTokens = new int[scores.length][];
+            for (int player = 0; player < scores.length; player++) {
+                scores[player] = buffer.getInt();
+                playerTokens[player] = new int[buffer.get()];
+                for (int i = 0; i < playerTokens[player].length; i++) playerTokens[player][i] = buffer.getShort();
+            }
+            int end = buffer.position();
+            CRC32 crc = new CRC32();
+            for (int i = start; i < end; i++) crc.update(buffer.get(i));
+            if (buffer.getInt() != (int) crc.getValue()) throw new IOException("corrupt checkpoint");
+            return new GameCheckpoint(seed, savedAtMillis, timerValue, ticks, deck, slotToCard, playerTokens, scores);
+        } catch (RuntimeException e) { // truncated, or a negative length
+            throw new IOException("corrupt checkpoint", e);
+        }
+    }
+
+    /**
+     * Writes the checkpoint to a file, replacing the previous one only once it is completely written.
+     */
+    public void write(Path file) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = encode();
+            while (buffer.hasRemaining()) channel.write(buffer);
+            channel.force(false);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a checkpoint file.
+     */
+    public static GameCheckpoint read(Path file) throws IOException {
+        return decode(ByteBuffer.wrap(Files.readAllBytes(file)));
+    }
+}
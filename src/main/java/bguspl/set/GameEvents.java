@@ -0,0 +1,145 @@
+package bguspl.set;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events for the game actions, so a recording shows game level latency next to the thread and
+ * lock data. All events are disabled by default; while disabled begin() and commit() are no-ops, and the event
+ * objects do not escape so the JIT removes their allocation. Enable them for a recording with e.g.
+ * -XX:StartFlightRecording:bguspl.set.Claim#enabled=true,... or with a custom .jfc settings file.
+ */
+public final class GameEvents {
+
+    private static final String CATEGORY = "Set Game";
+
+    private GameEvents() {
+    }
+
+    /**
+     * Packs the slots of a claim into an event field, so claims can be matched with the card events of their slots:
+     * slot + 1 in each byte, the first slot in the lowest one, and 0 after the last (up to four slots below 255).
+     */
+    public static int packSlots(int[] slots) {
+        int packed = 0;
+        for (int i = Math.min(slots.length, 4) - 1; i >= 0; i--) packed = packed << 8 | (slots[i] + 1) & 0xff;
+        return packed;
+    }
+
+    @Name("bguspl.set.Claim")
+    @Label("Set Claim")
+    @Description("A player claiming a set, from trying to acquire the dealer's semaphore until the verdict arrives")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    public static class ClaimEvent extends Event {
+
+        @Label("Player")
+        public int player;
+
+        @Label("Slots")
+        @Description("The claimed slots, see packSlots")
+        public int slots;
+
+        @Label("Accepted")
+        public boolean accepted;
+    }
+
+    @Name("bguspl.set.Verdict")
+    @Label("Verdict")
+    @Description("The dealer checking the cards a player claimed and replacing them if they form a set")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    public static class VerdictEvent extends Event {
+
+        @Label("Player")
+        public int player;
+
+        @Label("Slots")
+        @Description("The claimed slots, see packSlots")
+        public int slots;
+
+        @Label("Accepted")
+        public boolean accepted;
+    }
+
+    @Name("bguspl.set.TokenPlace")
+    @Label("Token Place")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    public static class TokenPlaceEvent extends Event {
+
+        @Label("Player")
+        public int player;
+
+        @Label("Slot")
+        public int slot;
+
+        @Label("Placed")
+        public boolean placed;
+    }
+
+    @Name("bguspl.set.TokenRemove")
+    @Label("Token Remove")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    public static class TokenRemoveEvent extends Event {
+
+        @Label("Player")
+        public int player;
+
+        @Label("Slot")
+        public int slot;
+
+        @Label("Removed")
+        public boolean removed;
+    }
+
+    @Name("bguspl.set.CardPlace")
+    @Label("Card Place")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    public static class CardPlaceEvent extends Event {
+
+        @Label("Card")
+        public int card;
+
+        @Label("Slot")
+        public int slot;
+    }
+
+    @Name("bguspl.set.CardRemove")
+    @Label("Card Remove")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    public static class CardRemoveEvent extends Event {
+
+        @Label("Card")
+        public int card;
+
+        @Label("Slot")
+        public int slot;
+    }
+
+    @Name("bguspl.set.Reshuffle")
+    @Label("Reshuffle")
+    @Description("The dealer returning all the cards on the table to the deck")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    public static class ReshuffleEvent extends Event {
+
+        @Label("Cards Returned")
+        public int cards;
+    }
+}
@@ -0,0 +1,267 @@
+package bguspl.set;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An append-only binary journal of the game events, written through a memory-mapped file.
+ *
+ * The file starts with a HEADER_SIZE bytes header (magic, version, record size, seed, start time and, once closed,
+ * the record count) followed by RECORD_SIZE bytes records:
+ * clock time in milliseconds (long), nanoseconds since the journal was opened (long), type, player, slot and value
+ * (ints). Unused fields are -1. The value is the card for card events, 1/0 for a verdict, the number of cards
+ * for a reshuffle and the dealer's countdown ticks for a key press or the end of the game. The seed and the key
+ * presses are enough to replay the game (see Replay).
+ *
+ * Appending reserves a record with an atomic increment and fills it with absolute puts into the mapped segment, so it
+ * neither allocates nor makes a system call (except when a new segment is mapped, every SEGMENT_RECORDS records). The
+ * type is written last, so a reader of an unclosed journal stops at the first record with type 0. Each append is
+ * also counted while it runs, so closing (which truncates the file under the mapped segments) waits for the appends in
+ * progress, and the appends that start after it are dropped.
+ */
+public class GameJournal implements AutoCloseable {
+
+    public static final int MAGIC = 0x5345544a; // "SETJ"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 64;
+    public static final int RECORD_SIZE = 32;
+
+    /**
+     * Record types.
+     */
+    public static final int CARD_PLACED = 1;
+    public static final int CARD_REMOVED = 2;
+    public static final int TOKEN_PLACED = 3;
+    public static final int TOKEN_REMOVED = 4;
+    public static final int CLAIM = 5;
+    public static final int VERDICT = 6;
+    public static final int RESHUFFLE = 7;
+    public static final int KEY_PRESSED = 8;
+    public static final int GAME_OVER = 9;
+    public static final int TERMINATED = 10;
+
+    /**
+     * The names of the record types, by type.
+     */
+    static final String[] TYPE_NAMES = {
+            "?", "CARD_PLACED", "CARD_REMOVED", "TOKEN_PLACED", "TOKEN_REMOVED", "CLAIM", "VERDICT", "RESHUFFLE",
+            "KEY_PRESSED", "GAME_OVER", "TERMINATED"
+    };
+
+    /**
+     * Header field offsets.
+     */
+    static final int MAGIC_OFFSET = 0;
+    static final int VERSION_OFFSET = 4;
+    static final int RECORD_SIZE_OFFSET = 8;
+    static final int SEED_OFFSET = 16;
+    static final int START_OFFSET = 24;
+    static final int COUNT_OFFSET = 32;
+
+    /**
+     * Record field offsets.
+     */
+    static final int TIME_OFFSET = 0;
+    static final int NANOS_OFFSET = 8;
+    static final int TYPE_OFFSET = 16;
+    static final int PLAYER_OFFSET = 20;
+    static final int SLOT_OFFSET = 24;
+    static final int VALUE_OFFSET = 28;
+
+    private static final int SEGMENT_SHIFT = 16;
+    private static final int SEGMENT_RECORDS = 1 << SEGMENT_SHIFT;
+    private static final long SEGMENT_BYTES = (long) SEGMENT_RECORDS * RECORD_SIZE;
+
+    /**
+     * A journal that records nothing, for games without one.
+     */
+    public static final GameJournal DISABLED = new GameJournal();
+
+    private final FileChannel channel;
+    private final Clock clock;
+    private final long startNanos;
+    private final boolean enabled;
+    private final AtomicLong next = new AtomicLong();
+
+    /**
+     * The appends in progress, and whether the journal is closed: an append that saw it open is counted until it is
+     * done, so close() never truncates the file under it.
+     */
+    private final AtomicInteger appending = new AtomicInteger();
+    private volatile boolean closed;
+    private final MappedByteBuffer header;
+
+    /**
+     * The mapped segments, replaced (copy on write) when a segment is added.
+     */
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+    private GameJournal() {
+        channel = null;
+        clock = null;
+        startNanos = 0;
+        enabled = false;
+        header = null;
+    }
+
+    private GameJournal(FileChannel channel, Clock clock, long seed) throws IOException {
+        this.channel = channel;
+        this.clock = clock;
+        this.startNanos = System.nanoTime();
+        this.enabled = true;
+        header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC_OFFSET, MAGIC);
+        header.putInt(VERSION_OFFSET, VERSION);
+        header.putInt(RECORD_SIZE_OFFSET, RECORD_SIZE);
+        header.putLong(SEED_OFFSET, seed);
+        header.putLong(START_OFFSET, clock.currentTimeMillis());
+        header.putLong(COUNT_OFFSET, -1);
+    }
+
+    /**
+     * Creates (or overwrites) a journal file.
+     *
+     * @param file  - the journal file.
+     * @param clock - the clock of the game.
+     * @param seed  - the seed of the game (kept in the header for replays).
+     */
+    public static GameJournal open(Path file, Clock clock, long seed) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        return new GameJournal(channel, clock, seed);
+    }
+
+    public void cardPlaced(int card, int slot) {
+        append(CARD_PLACED, -1, slot, card);
+    }
+
+    public void cardRemoved(int card, int slot) {
+        append(CARD_REMOVED, -1, slot, card);
+    }
+
+    public void tokenPlaced(int player, int slot) {
+        append(TOKEN_PLACED, player, slot, -1);
+    }
+
+    public void tokenRemoved(int player, int slot) {
+        append(TOKEN_REMOVED, player, slot, -1);
+    }
+
+    public void claim(int player) {
+        append(CLAIM, player, -1, -1);
+    }
+
+    public void verdict(int player, boolean accepted) {
+        append(VERDICT, player, -1, accepted ? 1 : 0);
+    }
+
+    public void reshuffle(int cards) {
+        append(RESHUFFLE, -1, -1, cards);
+    }
+
+    /**
+     * A key press accepted into a player's action queue (the input replayed by Replay).
+     *
+     * @param ticks - the dealer's countdown ticks so far.
+     */
+    public void keyPressed(int player, int slot, int ticks) {
+        append(KEY_PRESSED, player, slot, ticks);
+    }
+
+    /**
+     * The game ended because no sets were left.
+     *
+     * @param ticks - the dealer's countdown ticks so far.
+     */
+    public void gameOver(int ticks) {
+        append(GAME_OVER, -1, -1, ticks);
+    }
+
+    /**
+     * The game was ended from the outside (e.g. the window was closed).
+     *
+     * @param ticks - the dealer's countdown ticks so far.
+     */
+    public void terminated(int ticks) {
+        append(TERMINATED, -1, -1, ticks);
+    }
+
+    /**
+     * @return - the number of records appended so far.
+     */
+    public long size() {
+        return next.get();
+    }
+
+    private void append(int type, int player, int slot, int value) {
+        if (!enabled) return;
+        appending.incrementAndGet();
+        try {
+            if (closed) return;
+            long index = next.getAndIncrement();
+            MappedByteBuffer segment = segment((int) (index >>> SEGMENT_SHIFT));
+            if (segment == null) return; // closed
+            int offset = (int) (index & (SEGMENT_RECORDS - 1)) * RECORD_SIZE;
+            segment.putLong(offset + TIME_OFFSET, clock.currentTimeMillis());
+            segment.putLong(offset + NANOS_OFFSET, System.nanoTime() - startNanos);
+            segment.putInt(offset + PLAYER_OFFSET, player);
+            segment.putInt(offset + SLOT_OFFSET, slot);
+            segment.putInt(offset + VALUE_OFFSET, value);
+            segment.putInt(offset + TYPE_OFFSET, type);
+        } finally {
+            appending.decrementAndGet();
+        }
+    }
+
+    private MappedByteBuffer segment(int number) {
+        MappedByteBuffer[] current = segments;
+        if (number < current.length && current[number] != null) return current[number];
+        return mapSegment(number);
+    }
+
+    private synchronized MappedByteBuffer mapSegment(int number) {
+        MappedByteBuffer[] current = segments;
+        if (number < current.length && current[number] != null) return current[number];
+        if (!channel.isOpen()) return null;
+        try {
+            MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE,
+                    HEADER_SIZE + number * SEGMENT_BYTES, SEGMENT_BYTES);
+            segment.order(ByteOrder.LITTLE_ENDIAN);
+            MappedByteBuffer[] grown = Arrays.copyOf(current, Math.max(current.length, number + 1));
+            grown[number] = segment;
+            segments = grown;
+            return segment;
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot map journal segment " + number, e);
+        }
+    }
+
+    /**
+     * Writes the record count to the header, flushes the file and trims the unused part of the last segment, once the
+     * appends in progress are done. Events appended after closing are dropped.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!enabled) return;
+        closed = true;
+        // not under the monitor, which an append in progress may need to map a segment
+        while (appending.get() > 0) Thread.onSpinWait();
+        synchronized (this) {
+            if (!channel.isOpen()) return;
+            long count = next.get();
+            header.putLong(COUNT_OFFSET, count);
+            header.force();
+            for (MappedByteBuffer segment : segments) if (segment != null) segment.force();
+            channel.truncate(HEADER_SIZE + count * RECORD_SIZE);
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package bguspl.set;
+
+import bguspl.set.ex.Dealer;
+import bguspl.set.ex.Player;
+import bguspl.set.ex.Table;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Runs many independent games in one JVM. All games share the configuration, a single Util (with its precomputed
+ * card features), a metrics registry aggregating their throughput and a bounded thread pool; each game has its own
+ * Env, Table, Dealer and Players. The number of concurrent games is capped so the pool always has a thread for every
+ * dealer and player that was admitted.
+ *
+ * Usage: mvn exec:java -Dexec.mainClass=bguspl.set.GameServer -Dexec.args="[config file] [Key=Value ...]"
+ * Any config.properties key can be overridden on the command line, in addition to ServerMaxGames (the admission
+ * limit, default 100) and ServerTotalGames (the number of games to play, default ServerMaxGames). The games that run
+ * out of sets are added to the LeaderboardFile leaderboard, if set.
+ */
+public class GameServer {
+
+    /**
+     * Metric names of the server.
+     */
+    public static final String GAMES_STARTED = "server.games.started";
+    public static final String GAMES_FINISHED = "server.games.finished";
+    public static final String GAMES_REJECTED = "server.games.rejected";
+    public static final String GAMES_FAILED = "server.games.failed";
+    public static final String GAME_DURATION = "server.game.duration";
+
+    /**
+     * A game hosted by the server.
+     */
+    public class Game {
+
+        public final int id;
+        public final Env env;
+
+        /**
+         * The game as seen by spectators; subscribing does not involve the game threads.
+         */
+        public final SpectatorFeed spectators;
+        private final Table table;
+        private final Dealer dealer;
+        private final Player[] players;
+        private final CompletableFuture<Game> completion = new CompletableFuture<>();
+        private final long startNanos = System.nanoTime();
+        private final long startMillis = clock.currentTimeMillis();
+        private volatile long lengthMillis = -1;
+
+        private Game(int id, UserInterface ui) {
+            this.id = id;
+            spectators = new SpectatorFeed(ui, config);
+            env = new Env(logger, config, spectators, util, metrics, clock, pool, seed + id);
+            players = new Player[config.players];
+            table = new Table(env);
+            dealer = new Dealer(env, table, players);
+            for (int i = 0; i < players.length; i++)
+                players[i] = new Player(env, dealer, table, i, i < config.humanPlayers);
+        }
+
+        /**
+         * Ends this game (only), the same way closing the window ends a local game.
+         */
+        public void terminate() {
+            dealer.terminate();
+        }
+
+        public boolean isDone() {
+            return completion.isDone();
+        }
+
+        public void awaitTermination() throws InterruptedException {
+            try {
+                completion.get();
+            } catch (ExecutionException ignored) {
+                // never completed exceptionally
+            }
+        }
+
+        /**
+         * @return - a future completed with this game when it ends, so results can be collected as they come.
+         */
+        public CompletableFuture<Game> completion() {
+            return completion;
+        }
+
+        /**
+         * @return - the game length in milliseconds of the game clock, or -1 while the game is running.
+         */
+        public long lengthMillis() {
+            return lengthMillis;
+        }
+
+        /**
+         * @return - the players of the game, e.g. to route remote key presses to them.
+         */
+        public Player[] players() {
+            return players;
+        }
+
+        public int[] scores() {
+            int[] scores = new int[players.length];
+            for (int i = 0; i < players.length; i++) scores[i] = players[i].score();
+            return scores;
+        }
+
+        private void run() {
+            try {
+                dealer.run();
+                Leaderboard leaderboard = GameServer.this.leaderboard;
+                // a terminated game (shut down, or abandoned by its connections) did not end
+                if (leaderboard != null && dealer.completed())
+                    leaderboard.recordGame(config, players, dealer.winners());
+            } catch (RuntimeException e) {
+                // the game is lost, but the other games and the pool threads must not be
+                logger.severe("game " + id + " failed: " + e);
+                gamesFailed.increment();
+                for (Player player : players) {
+                    player.terminate();
+                    Thread thread = player.getPlayerThread();
+                    if (thread != null) thread.interrupt();
+                }
+            } finally {
+                lengthMillis = clock.currentTimeMillis() - startMillis;
+                games.remove(id);
+                admission.release();
+                gamesFinished.increment();
+                gameDuration.recordSince(startNanos);
+                completion.complete(this);
+            }
+        }
+    }
+
+    private final Logger logger;
+    private final Config config;
+    private final Util util;
+    private final Metrics metrics;
+    private final Clock clock;
+    private final long seed;
+    private final ExecutorService pool;
+    private final Semaphore admission;
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final Map<Integer, Game> games = new ConcurrentHashMap<>();
+    private volatile Leaderboard leaderboard;
+
+    private final Metrics.Counter gamesStarted;
+    private final Metrics.Counter gamesFinished;
+    private final Metrics.Counter gamesRejected;
+    private final Metrics.Counter gamesFailed;
+    private final Metrics.Histogram gameDuration;
+
+    /**
+     * @param logger   - the logger shared by all games.
+     * @param config   - the configuration of all games.
+     * @param clock    - the clock shared by all games.
+     * @param maxGames - the maximal number of games running at the same time.
+     */
+    public GameServer(Logger logger, Config config, Clock clock, int maxGames) {
+        this(logger, config, new UtilImpl(config), clock, maxGames, new Random().nextLong());
+    }
+
+    /**
+     * @param logger   - the logger shared by all games.
+     * @param config   - the configuration of all games.
+     * @param util     - the utilities shared by all games (may be shared with other servers of the same deck).
+     * @param clock    - the clock shared by all games.
+     * @param maxGames - the maximal number of games running at the same time.
+     * @param seed     - the seed of the first game; game n is seeded with seed + n.
+     */
+    public GameServer(Logger logger, Config config, Util util, Clock clock, int maxGames, long seed) {
+        this.logger = logger;
+        this.config = config;
+        this.util = util;
+        this.metrics = new Metrics();
+        this.clock = clock;
+        this.seed = seed;
+        this.admission = new Semaphore(maxGames);
+        AtomicInteger threads = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(maxGames * threadsPerGame(config), task -> {
+            Thread thread = new Thread(task, "game-pool-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        gamesStarted = metrics.counter(GAMES_STARTED);
+        gamesFinished = metrics.counter(GAMES_FINISHED);
+        gamesRejected = metrics.counter(GAMES_REJECTED);
+        gamesFailed = metrics.counter(GAMES_FAILED);
+        gameDuration = metrics.histogram(GAME_DURATION);
+    }
+
+    /**
+     * @return - the number of pool threads a game occupies: its dealer, its players, the computer players' key
+     * generators and its hint engine (if config.hints).
+     */
+    public static int threadsPerGame(Config config) {
+        return 1 + config.players + config.computerPlayers + (config.hints ? 1 : 0);
+    }
+
+    /**
+     * Starts a new game if the admission limit allows it.
+     *
+     * @return - the new game, or null if the server is full.
+     */
+    public Game tryStart() {
+        return tryStart(new HeadlessUserInterface());
+    }
+
+    /**
+     * Starts a new game displayed on the given user interface if the admission limit allows it.
+     *
+     * @return - the new game, or null if the server is full.
+     */
+    public Game tryStart(UserInterface ui) {
+        if (!admission.tryAcquire()) {
+            gamesRejected.increment();
+            return null;
+        }
+        return launch(ui);
+    }
+
+    /**
+     * Starts a new game, waiting for a running game to finish if the server is full.
+     *
+     * @return - the new game.
+     */
+    public Game start() throws InterruptedException {
+        admission.acquire();
+        return launch(new HeadlessUserInterface());
+    }
+
+    private Game launch(UserInterface ui) {
+        Game game;
+        try {
+            game = new Game(nextId.getAndIncrement(), ui);
+        } catch (RuntimeException e) {
+            admission.release();
+            throw e;
+        }
+        games.put(game.id, game);
+        gamesStarted.increment();
+        pool.execute(game::run);
+        return game;
+    }
+
+    /**
+     * @return - the games currently running.
+     */
+    public Collection<Game> games() {
+        return Collections.unmodifiableCollection(games.values());
+    }
+
+    /**
+     * Adds the games that finish from now on to a leaderboard.
+     *
+     * @param leaderboard - the leaderboard, or null for none.
+     */
+    public void recordTo(Leaderboard leaderboard) {
+        this.leaderboard = leaderboard;
+    }
+
+    /**
+     * @return - the metrics aggregated over all games.
+     */
+    public Metrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Terminates all running games and waits for the pool threads to finish.
+     */
+    public void shutdown() throws InterruptedException {
+        for (Game game : games.values()) game.terminate();
+        for (Game game : new ArrayList<>(games.values())) game.awaitTermination();
+        pool.shutdown();
+        pool.awaitTermination(config.turnTimeoutMillis + 1000, TimeUnit.MILLISECONDS);
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Logger logger = Logger.getLogger("SetGameServerLogger");
+        logger.setUseParentHandlers(false);
+
+        String configFile = args.length > 0 && !args[0].contains("=") ? args[0] : "config.properties";
+        Properties properties = Config.loadProperties(configFile, logger);
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            if (split > 0) properties.setProperty(arg.substring(0, split).trim(), arg.substring(split + 1).trim());
+        }
+        // there is no keyboard on a server
+        properties.setProperty("HumanPlayers", "0");
+        properties.setProperty("Hints", "False");
+
+        Config config = new Config(logger, properties);
+        if (config.players == 0) {
+            System.out.println("no players: set ComputerPlayers to the number of bots per game.");
+            return;
+        }
+        int maxGames = Integer.parseInt(properties.getProperty("ServerMaxGames", "100").trim());
+        int totalGames = Integer.parseInt(properties.getProperty("ServerTotalGames", Integer.toString(maxGames)).trim());
+
+        GameServer server = new GameServer(logger, config, new RealTimeClock(), maxGames);
+        Leaderboard leaderboard = Leaderboard.open(config, logger);
+        server.recordTo(leaderboard);
+        long start = System.nanoTime();
+        List<Game> started = new ArrayList<>();
+        for (int i = 0; i < totalGames; i++) started.add(server.start());
+        for (Game game : started) game.awaitTermination();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        server.shutdown();
+        if (leaderboard != null) leaderboard.close();
+
+        Metrics metrics = server.metrics();
+        System.out.printf(Locale.ROOT, "server: %d games (at most %d at a time, %d threads) in %.1f s: %.1f games/min, "
+                        + "%.1f sets/s%n", totalGames, maxGames, maxGames * threadsPerGame(config), seconds,
+                totalGames / (seconds / 60.0), metrics.counter(Metrics.POINTS).get() / seconds);
+        if (config.lockProfiling) System.out.print(LockProfiler.report(metrics));
+        System.out.print(metrics.dump());
+    }
+}
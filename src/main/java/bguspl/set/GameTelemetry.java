@@ -0,0 +1,156 @@
+package bguspl.set;
+
+import bguspl.set.ex.Dealer;
+import bguspl.set.ex.Player;
+import bguspl.set.ex.Table;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * The JMX view of a running game, for JConsole or a metrics scraper. Every attribute is read from a volatile field, an
+ * atomic or a metric of the game, never under the table, player or dealer locks, so polling it does not slow the game
+ * down (and may see a value a moment old).
+ */
+public class GameTelemetry implements GameTelemetryMBean {
+
+    /**
+     * The object name the game registers its telemetry under.
+     */
+    public static final String NAME = "bguspl.set:type=Game";
+
+    private final Env env;
+    private final Table table;
+    private final Dealer dealer;
+    private final Player[] players;
+    private final Metrics.Histogram claimVerify;
+    private final Metrics.Counter prechecked;
+    private final Metrics.Counter points;
+    private final Metrics.Counter penalties;
+
+    public GameTelemetry(Env env, Table table, Dealer dealer, Player[] players) {
+        this.env = env;
+        this.table = table;
+        this.dealer = dealer;
+        this.players = players;
+        claimVerify = env.metrics.histogram(Metrics.CLAIM_VERIFY);
+        prechecked = env.metrics.counter(Metrics.CLAIM_PRECHECK_REJECTED);
+        points = env.metrics.counter(Metrics.POINTS);
+        penalties = env.metrics.counter(Metrics.PENALTIES);
+    }
+
+    /**
+     * Registers the telemetry with the platform MBean server (a failure is logged, the game runs without it).
+     *
+     * @return - the name it was registered under, or null if it was not.
+     */
+    public ObjectName register(String name) {
+        try {
+            ObjectName objectName = new ObjectName(name);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(this, objectName);
+            return objectName;
+        } catch (JMException e) {
+            env.logger.severe("cannot register telemetry as " + name + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * @param objectName - the value returned by register() (nothing is done if null).
+     */
+    public void unregister(ObjectName objectName) {
+        if (objectName == null) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            env.logger.severe("cannot unregister telemetry " + objectName + ": " + e);
+        }
+    }
+
+    @Override
+    public int[] getScores() {
+        int[] scores = new int[players.length];
+        for (int i = 0; i < players.length; i++) scores[i] = players[i] == null ? 0 : players[i].score();
+        return scores;
+    }
+
+    @Override
+    public int getCardsOnTable() {
+        return table.countCards();
+    }
+
+    @Override
+    public double getTableOccupancy() {
+        return (double) table.countCards() / env.config.tableSize;
+    }
+
+    @Override
+    public int getDeckRemaining() {
+        return dealer.deckRemaining();
+    }
+
+    @Override
+    public int getClaimsPending() {
+        return dealer.pendingClaims();
+    }
+
+    @Override
+    public long getClaimsVerified() {
+        return claimVerify.count();
+    }
+
+    @Override
+    public long getClaimsPrechecked() {
+        return prechecked.get();
+    }
+
+    @Override
+    public long getPoints() {
+        return points.get();
+    }
+
+    @Override
+    public long getPenalties() {
+        return penalties.get();
+    }
+
+    @Override
+    public double getVerdictLatencyMeanMillis() {
+        return claimVerify.mean() / 1e6;
+    }
+
+    @Override
+    public String getDealerThreadState() {
+        return stateOf(dealer.dealerThread);
+    }
+
+    @Override
+    public String[] getPlayerThreadStates() {
+        String[] states = new String[players.length];
+        for (int i = 0; i < players.length; i++)
+            states[i] = stateOf(players[i] == null ? null : players[i].getPlayerThread());
+        return states;
+    }
+
+    @Override
+    public long getReshuffleDeadlineMillis() {
+        long deadline = dealer.reshuffleTime();
+        return deadline == Long.MAX_VALUE ? -1 : deadline;
+    }
+
+    @Override
+    public long getMillisUntilReshuffle() {
+        long deadline = dealer.reshuffleTime();
+        return deadline == Long.MAX_VALUE ? -1 : Math.max(0, deadline - env.clock.currentTimeMillis());
+    }
+
+    /**
+     * @return - the state of a game thread, "NEW" if it did not start yet.
+     */
+    private static String stateOf(Thread thread) {
+        return (thread == null ? Thread.State.NEW : thread.getState()).name();
+    }
+}
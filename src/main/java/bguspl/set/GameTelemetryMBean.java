@@ -0,0 +1,56 @@
+package bguspl.set;
+
+/**
+ * The live values of a game, as JMX attributes (see GameTelemetry).
+ */
+public interface GameTelemetryMBean {
+
+    int[] getScores();
+
+    int getCardsOnTable();
+
+    /**
+     * @return - the share of the table slots holding a card, between 0 and 1.
+     */
+    double getTableOccupancy();
+
+    int getDeckRemaining();
+
+    /**
+     * @return - the claim the dealer is checking (if any) and the claims waiting for it.
+     */
+    int getClaimsPending();
+
+    /**
+     * @return - the claims the dealer ruled on so far.
+     */
+    long getClaimsVerified();
+
+    /**
+     * @return - the claims rejected by the players themselves, without the dealer (not a set).
+     */
+    long getClaimsPrechecked();
+
+    long getPoints();
+
+    long getPenalties();
+
+    /**
+     * @return - the mean time the dealer takes to rule on a claim, in milliseconds.
+     */
+    double getVerdictLatencyMeanMillis();
+
+    String getDealerThreadState();
+
+    String[] getPlayerThreadStates();
+
+    /**
+     * @return - the game clock time of the next reshuffle, or -1 before the countdown starts.
+     */
+    long getReshuffleDeadlineMillis();
+
+    /**
+     * @return - the milliseconds left until the next reshuffle, or -1 before the countdown starts.
+     */
+    long getMillisUntilReshuffle();
+}
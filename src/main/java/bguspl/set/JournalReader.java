@@ -0,0 +1,126 @@
+package bguspl.set;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+/**
+ * Reads a journal written by GameJournal, including one that was not closed (e.g. after a crash), in which case the
+ * records are read up to the first unwritten one.
+ *
+ * Usage: mvn exec:java -Dexec.mainClass=bguspl.set.JournalReader -Dexec.args="journal file [summary]"
+ * Prints the records one per line, or only the number of records of each type with "summary".
+ */
+public class JournalReader implements AutoCloseable {
+
+    /**
+     * Receives the records of a journal, in the order they were appended.
+     */
+    public interface Visitor {
+        void record(long time, long nanos, int type, int player, int slot, int value);
+    }
+
+    private static final int BATCH_RECORDS = 2048;
+
+    private final FileChannel channel;
+
+    /**
+     * The seed of the journaled game.
+     */
+    public final long seed;
+
+    /**
+     * The game clock time the journal was opened at.
+     */
+    public final long startMillis;
+
+    /**
+     * The number of records, or -1 if the journal was not closed.
+     */
+    public final long count;
+
+    public JournalReader(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        ByteBuffer header = ByteBuffer.allocate(GameJournal.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining() && channel.read(header) >= 0) ;
+        if (header.hasRemaining() || header.getInt(GameJournal.MAGIC_OFFSET) != GameJournal.MAGIC) {
+            channel.close();
+            throw new IOException(file + " is not a game journal");
+        }
+        if (header.getInt(GameJournal.VERSION_OFFSET) != GameJournal.VERSION
+                || header.getInt(GameJournal.RECORD_SIZE_OFFSET) != GameJournal.RECORD_SIZE) {
+            channel.close();
+            throw new IOException(file + ": unsupported journal version " + header.getInt(GameJournal.VERSION_OFFSET));
+        }
+        seed = header.getLong(GameJournal.SEED_OFFSET);
+        startMillis = header.getLong(GameJournal.START_OFFSET);
+        count = header.getLong(GameJournal.COUNT_OFFSET);
+    }
+
+    /**
+     * Passes every record to the visitor.
+     *
+     * @return - the number of records read.
+     */
+    public long forEach(Visitor visitor) throws IOException {
+        ByteBuffer batch = ByteBuffer.allocateDirect(BATCH_RECORDS * GameJournal.RECORD_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        long position = GameJournal.HEADER_SIZE;
+        long read = 0;
+        while (count < 0 || read < count) {
+            batch.clear();
+            int bytes = channel.read(batch, position);
+            if (bytes < GameJournal.RECORD_SIZE) break;
+            position += bytes - bytes % GameJournal.RECORD_SIZE;
+            for (int offset = 0; offset + GameJournal.RECORD_SIZE <= bytes; offset += GameJournal.RECORD_SIZE) {
+                int type = batch.getInt(offset + GameJournal.TYPE_OFFSET);
+                if (type == 0 || (count >= 0 && read == count)) return read;
+                visitor.record(batch.getLong(offset + GameJournal.TIME_OFFSET),
+                        batch.getLong(offset + GameJournal.NANOS_OFFSET), type,
+                        batch.getInt(offset + GameJournal.PLAYER_OFFSET), batch.getInt(offset + GameJournal.SLOT_OFFSET),
+                        batch.getInt(offset + GameJournal.VALUE_OFFSET));
+                read++;
+            }
+        }
+        return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * @return - the name of a record type.
+     */
+    public static String typeName(int type) {
+        return type > 0 && type < GameJournal.TYPE_NAMES.length ? GameJournal.TYPE_NAMES[type] : "?";
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("usage: JournalReader <journal file> [summary]");
+            return;
+        }
+        boolean summary = args.length > 1 && args[1].equalsIgnoreCase("summary");
+        try (JournalReader reader = new JournalReader(Paths.get(args[0]))) {
+            System.out.printf(Locale.ROOT, "journal %s: seed %d, started at %d, %s%n", args[0], reader.seed,
+                    reader.startMillis, reader.count < 0 ? "not closed" : reader.count + " records");
+            long[] types = new long[GameJournal.TYPE_NAMES.length];
+            long read = reader.forEach((time, nanos, type, player, slot, value) -> {
+                if (type < types.length) types[type]++;
+                if (!summary)
+                    System.out.printf(Locale.ROOT, "%d %.3fms %s player=%d slot=%d value=%d%n", time - reader.startMillis,
+                            nanos / 1e6, typeName(type), player, slot, value);
+            });
+            for (int type = 1; type < types.length; type++)
+                System.out.printf(Locale.ROOT, "%s: %d%n", typeName(type), types[type]);
+            System.out.printf(Locale.ROOT, "%d records%n", read);
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package bguspl.set;
+
+import bguspl.set.ex.Player;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * A leaderboard that outlives the games: wins, sets, penalties and claim latency per player name, accumulated over
+ * every game recorded into it, in a memory-mapped file.
+ *
+ * The file has a HEADER_SIZE bytes header (magic, version, record size, capacity and the number of records) followed
+ * by `capacity` RECORD_SIZE bytes records: games, wins, sets, penalties, accepted or rejected claims and their total
+ * latency in nanoseconds (longs), then the name (a short length and up to MAX_NAME_BYTES bytes of UTF-8), all
+ * little-endian. A player's first game appends a record by incrementing the record count; every later game adds to
+ * the counters in place with atomic adds on the mapping, so recording takes no lock and reading is a plain read of
+ * the mapping. The name length is written last, so a reader skips a record whose name is not written yet.
+ *
+ * Games in the same JVM share one instance per file (see open). Different processes may record into the same file at
+ * the same time, except that two processes meeting a new name at the same moment may both append a record for it.
+ */
+public class Leaderboard implements AutoCloseable {
+
+    public static final int MAGIC = 0x5345544c; // "SETL"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 64;
+    public static final int RECORD_SIZE = 128;
+    public static final int MAX_NAME_BYTES = 62;
+
+    /**
+     * The number of records of a new leaderboard file.
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    /**
+     * Header field offsets.
+     */
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int RECORD_SIZE_OFFSET = 8;
+    private static final int CAPACITY_OFFSET = 12;
+    private static final int COUNT_OFFSET = 16;
+
+    /**
+     * Record field offsets.
+     */
+    private static final int GAMES_OFFSET = 0;
+    private static final int WINS_OFFSET = 8;
+    private static final int SETS_OFFSET = 16;
+    private static final int PENALTIES_OFFSET = 24;
+    private static final int CLAIMS_OFFSET = 32;
+    private static final int CLAIM_NANOS_OFFSET = 40;
+    private static final int NAME_LENGTH_OFFSET = 64;
+    private static final int NAME_OFFSET = 66;
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class,
+            ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class,
+            ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle SHORTS = MethodHandles.byteBufferViewVarHandle(short[].class,
+            ByteOrder.LITTLE_ENDIAN);
+
+    private static final Map<Path, Leaderboard> OPEN = new ConcurrentHashMap<>();
+
+    /**
+     * The totals of a player name.
+     */
+    public static class Entry {
+
+        public final String name;
+        public final long games;
+        public final long wins;
+        public final long sets;
+        public final long penalties;
+        public final long claims;
+        public final long claimNanos;
+
+        Entry(String name, long games, long wins, long sets, long penalties, long claims, long claimNanos) {
+            this.name = name;
+            this.games = games;
+            this.wins = wins;
+            this.sets = sets;
+            this.penalties = penalties;
+            this.claims = claims;
+            this.claimNanos = claimNanos;
+        }
+
+        /**
+         * @return - the average claim latency in microseconds.
+         */
+        public double averageClaimMicros() {
+            return claims == 0 ? 0 : claimNanos / 1000.0 / claims;
+        }
+    }
+
+    private final Path file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final Map<String, Integer> records = new ConcurrentHashMap<>();
+    private int users = 1;
+
+    private Leaderboard(Path file, FileChannel channel, MappedByteBuffer buffer, int capacity) {
+        this.file = file;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Opens a leaderboard file, creating it if it does not exist. Opening a file that is already open in this JVM
+     * returns the same leaderboard, which then needs to be closed once per open.
+     *
+     * @param capacity - the number of records of a new file (an existing one keeps its capacity).
+     */
+    public static Leaderboard open(Path file, int capacity) throws IOException {
+        Path key = file.toAbsolutePath().normalize();
+        synchronized (OPEN) {
+            Leaderboard leaderboard = OPEN.get(key);
+            if (leaderboard != null) {
+                leaderboard.users++;
+                return leaderboard;
+            }
+            FileChannel channel = FileChannel.open(key, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            try {
+                boolean created = channel.size() == 0;
+                if (!created) {
+                    MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+                    header.order(ByteOrder.LITTLE_ENDIAN);
+                    if (header.getInt(MAGIC_OFFSET) != MAGIC) throw new IOException(file + " is not a leaderboard");
+                    if (header.getInt(VERSION_OFFSET) != VERSION || header.getInt(RECORD_SIZE_OFFSET) != RECORD_SIZE)
+                        throw new IOException(file + " has an unsupported leaderboard version");
+                    capacity = header.getInt(CAPACITY_OFFSET);
+                }
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                        HEADER_SIZE + (long) capacity * RECORD_SIZE);
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                if (created) {
+                    buffer.putInt(VERSION_OFFSET, VERSION);
+                    buffer.putInt(RECORD_SIZE_OFFSET, RECORD_SIZE);
+                    buffer.putInt(CAPACITY_OFFSET, capacity);
+                    buffer.putInt(MAGIC_OFFSET, MAGIC);
+                }
+                leaderboard = new Leaderboard(key, channel, buffer, capacity);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+            OPEN.put(key, leaderboard);
+            return leaderboard;
+        }
+    }
+
+    /**
+     * Opens the leaderboard of the configuration.
+     *
+     * @return - the leaderboard, or null if none is configured or it cannot be opened (which is logged).
+     */
+    public static Leaderboard open(Config config, Logger logger) {
+        if (config.leaderboardFile.isEmpty()) return null;
+        try {
+            return open(Paths.get(config.leaderboardFile), DEFAULT_CAPACITY);
+        } catch (IOException e) {
+            logger.severe("cannot open leaderboard " + config.leaderboardFile + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Adds a finished game to the totals of its players. Of a resumed game only the sets made since the resume are
+     * added (the penalties and claims are counted from the resume anyway), as the rest were made by another process.
+     *
+     * @param config  - the configuration of the game (for the player names).
+     * @param players - the players of the game.
+     * @param winners - the ids of the winners.
+     */
+    public void recordGame(Config config, Player[] players, int[] winners) {
+        if (winners == null) return; // the game did not end
+        for (Player player : players) {
+            boolean won = false;
+            for (int winner : winners) won |= winner == player.id;
+            record(config.playerNames[player.id], won, player.score() - player.restoredScore(), player.penalties(),
+                    player.claims(), player.claimNanos());
+        }
+    }
+
+    /**
+     * Adds one game to the totals of a player name.
+     *
+     * @return - false if the name is new and the leaderboard is full.
+     */
+    public boolean record(String name, boolean won, int sets, int penalties, long claims, long claimNanos) {
+        int offset = recordOffset(name);
+        if (offset < 0) return false;
+        LONGS.getAndAdd(buffer, offset + GAMES_OFFSET, 1L);
+        if (won) LONGS.getAndAdd(buffer, offset + WINS_OFFSET, 1L);
+        LONGS.getAndAdd(buffer, offset + SETS_OFFSET, (long) sets);
+        LONGS.getAndAdd(buffer, offset + PENALTIES_OFFSET, (long) penalties);
+        LONGS.getAndAdd(buffer, offset + CLAIMS_OFFSET, claims);
+        LONGS.getAndAdd(buffer, offset + CLAIM_NANOS_OFFSET, claimNanos);
+        return true;
+    }
+
+    /**
+     * @return - the offset of the record of a name, appending one if it is new, or -1 if the leaderboard is full.
+     */
+    private int recordOffset(String name) {
+        Integer index = records.get(name);
+        if (index == null) index = records.computeIfAbsent(name, this::findOrAppend);
+        return index == null ? -1 : HEADER_SIZE + index * RECORD_SIZE;
+    }
+
+    /**
+     * @return - the index of the record of a name, or null if it is new and the leaderboard is full.
+     */
+    private Integer findOrAppend(String name) {
+        byte[] bytes = encodeName(name);
+        // another process may have added it since this one last looked
+        int count = (int) INTS.getVolatile(buffer, COUNT_OFFSET);
+        for (int index = 0; index < count; index++) if (name.equals(name(index))) return index;
+        int index;
+        do {
+            index = (int) INTS.getVolatile(buffer, COUNT_OFFSET);
+            if (index >= capacity) return null;
+        } while (!INTS.compareAndSet(buffer, COUNT_OFFSET, index, index + 1));
+        int offset = HEADER_SIZE + index * RECORD_SIZE;
+        for (int i = 0; i < bytes.length; i++) buffer.put(offset + NAME_OFFSET + i, bytes[i]);
+        SHORTS.setRelease(buffer, offset + NAME_LENGTH_OFFSET, (short) bytes.length);
+        return index;
+    }
+
+    private static byte[] encodeName(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length <= MAX_NAME_BYTES) return bytes;
+        // cut at a character boundary
+        int length = MAX_NAME_BYTES;
+        while ((bytes[length] & 0xc0) == 0x80) length--;
+        byte[] cut = new byte[length];
+        System.arraycopy(bytes, 0, cut, 0, length);
+        return cut;
+    }
+
+    /**
+     * @return - the name of a record, or null if it is not written yet.
+     */
+    private String name(int index) {
+        int offset = HEADER_SIZE + index * RECORD_SIZE;
+        int length = (short) SHORTS.getAcquire(buffer, offset + NAME_LENGTH_OFFSET);
+        if (length <= 0) return null;
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) bytes[i] = buffer.get(offset + NAME_OFFSET + i);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return - the totals of every player name, in the order the names first played.
+     */
+    public List<Entry> entries() {
+        int count = Math.min(capacity, (int) INTS.getVolatile(buffer, COUNT_OFFSET));
+        List<Entry> entries = new ArrayList<>(count);
+        for (int index = 0; index < count; index++) {
+            String name = name(index);
+            if (name == null) continue;
+            int offset = HEADER_SIZE + index * RECORD_SIZE;
+            entries.add(new Entry(name, (long) LONGS.getVolatile(buffer, offset + GAMES_OFFSET),
+                    (long) LONGS.getVolatile(buffer, offset + WINS_OFFSET),
+                    (long) LONGS.getVolatile(buffer, offset + SETS_OFFSET),
+                    (long) LONGS.getVolatile(buffer, offset + PENALTIES_OFFSET),
+                    (long) LONGS.getVolatile(buffer, offset + CLAIMS_OFFSET),
+                    (long) LONGS.getVolatile(buffer, offset + CLAIM_NANOS_OFFSET)));
+        }
+        return entries;
+    }
+
+    /**
+     * Releases this use of the leaderboard; the file is unmapped by the garbage collector once the last use is closed.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (OPEN) {
+            if (--users > 0) return;
+            OPEN.remove(file);
+            buffer.force();
+            channel.close();
+        }
+    }
+
+    /**
+     * Prints a leaderboard, sorted by wins (then by sets).
+     *
+     * Usage: mvn exec:java -Dexec.mainClass=bguspl.set.Leaderboard -Dexec.args="leaderboard file [number of rows]"
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("usage: Leaderboard <leaderboard file> [number of rows]");
+            return;
+        }
+        if (!Files.exists(Paths.get(args[0]))) {
+            System.out.println(args[0] + ": no such leaderboard");
+            return;
+        }
+        int rows = args.length > 1 ? Integer.parseInt(args[1]) : Integer.MAX_VALUE;
+        try (Leaderboard leaderboard = open(Paths.get(args[0]), DEFAULT_CAPACITY)) {
+            List<Entry> entries = leaderboard.entries();
+            entries.sort((a, b) -> a.wins != b.wins ? Long.compare(b.wins, a.wins) : Long.compare(b.sets, a.sets));
+            System.out.printf(Locale.ROOT, "%-24s %10s %10s %12s %10s %14s%n", "player", "games", "wins", "sets",
+                    "penalties", "avg claim us");
+            for (Entry entry : entries.subList(0, Math.min(rows, entries.size())))
+                System.out.printf(Locale.ROOT, "%-24s %10d %10d %12d %10d %14.1f%n", entry.name, entry.games,
+                        entry.wins, entry.sets, entry.penalties, entry.averageClaimMicros());
+        }
+    }
+}
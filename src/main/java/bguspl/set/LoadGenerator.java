@@ -0,0 +1,207 @@
+package bguspl.set;
+
+import bguspl.set.ex.Dealer;
+import bguspl.set.ex.Player;
+import bguspl.set.ex.Table;
+import bguspl.set.ex.TableSets;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+import java.util.logging.Logger;
+
+/**
+ * A headless load generator: runs games back to back with synthetic players that press keys at a configured rate,
+ * then reports the sustained claim throughput and the claim latency percentiles.
+ *
+ * Usage: mvn exec:java -Dexec.mainClass=bguspl.set.LoadGenerator -Dexec.args="[config file] [Key=Value ...]"
+ * Any config.properties key can be overridden on the command line, in addition to the load settings:
+ * LoadPlayers (default 4), LoadStrategy (random, sets or adversarial, default random),
+ * LoadActionsPerSecond (per player, 0 for as fast as possible, default 20), LoadDurationSeconds (default 30) and
+ * LoadVirtualTime (true to run on a VirtualClock, so the duration and rates are in simulated time, default false).
+ */
+public class LoadGenerator {
+
+    /**
+     * How the synthetic players choose the slots they press.
+     */
+    enum Strategy {
+        /**
+         * Random slots, like the computer players.
+         */
+        RANDOM,
+        /**
+         * The slots of a random legal set on the table.
+         */
+        SETS,
+        /**
+         * Every player goes for the same legal set, so they contend on the same slots and claims.
+         */
+        ADVERSARIAL
+    }
+
+    private final Env env;
+    private final int players;
+    private final Strategy strategy;
+    private final double actionIntervalMillis;
+    private final long durationMillis;
+
+    private volatile boolean stop;
+
+    LoadGenerator(Env env, Strategy strategy, double actionsPerSecond, long durationMillis) {
+        this.env = env;
+        this.players = env.config.players;
+        this.strategy = strategy;
+        this.actionIntervalMillis = actionsPerSecond > 0 ? 1000.0 / actionsPerSecond : 0;
+        this.durationMillis = durationMillis;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Logger logger = Logger.getLogger("SetGameLoadLogger");
+        logger.setUseParentHandlers(false);
+
+        String configFile = args.length > 0 && !args[0].contains("=") ? args[0] : "config.properties";
+        Properties properties = Config.loadProperties(configFile, logger);
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            if (split > 0) properties.setProperty(arg.substring(0, split).trim(), arg.substring(split + 1).trim());
+        }
+        // the synthetic players drive the same input path as the keyboard
+        properties.setProperty("HumanPlayers", properties.getProperty("LoadPlayers", "4"));
+        properties.setProperty("ComputerPlayers", "0");
+        properties.setProperty("Hints", "False");
+
+        Config config = new Config(logger, properties);
+        Util util = new UtilImpl(config);
+        boolean virtualTime = Boolean.parseBoolean(properties.getProperty("LoadVirtualTime", "False").trim());
+        Clock clock = virtualTime ? new VirtualClock(System.currentTimeMillis()) : new RealTimeClock();
+        Env env = new Env(logger, config, new UserInterfaceDecorator(logger, util, null), util, new Metrics(), clock);
+
+        Strategy strategy = Strategy.valueOf(properties.getProperty("LoadStrategy", "random").trim()
+                .toUpperCase(Locale.ROOT));
+        double rate = Double.parseDouble(properties.getProperty("LoadActionsPerSecond", "20"));
+        long duration = (long) (Double.parseDouble(properties.getProperty("LoadDurationSeconds", "30")) * 1000.0);
+
+        LoadGenerator generator = new LoadGenerator(env, strategy, rate, duration);
+        long elapsed = generator.run();
+        if (clock instanceof VirtualClock) ((VirtualClock) clock).shutdown();
+        System.out.print(generator.report(elapsed, rate));
+    }
+
+    /**
+     * Runs games until the duration is over.
+     *
+     * @return - the elapsed time in milliseconds.
+     */
+    long run() throws InterruptedException {
+        long start = env.clock.currentTimeMillis();
+        long end = start + durationMillis;
+        int games = 0;
+        while (env.clock.currentTimeMillis() < end) {
+            runGame(end);
+            games++;
+        }
+        env.logger.info("load generator played " + games + " game(s).");
+        return env.clock.currentTimeMillis() - start;
+    }
+
+    private void runGame(long end) throws InterruptedException {
+        Player[] gamePlayers = new Player[players];
+        Table table = new Table(env);
+        Dealer dealer = new Dealer(env, table, gamePlayers);
+        for (int i = 0; i < gamePlayers.length; i++) gamePlayers[i] = new Player(env, dealer, table, i, true);
+
+        stop = false;
+        ThreadLogger dealerThread = new ThreadLogger(dealer, "dealer", env.logger);
+        dealerThread.startWithLog();
+        List<Thread> drivers = new ArrayList<>();
+        for (Player player : gamePlayers) {
+            Thread driver = new Thread(() -> drive(table, player), "load-" + player.id);
+            drivers.add(driver);
+            driver.start();
+        }
+
+        long now;
+        while (dealerThread.isAlive() && (now = env.clock.currentTimeMillis()) < end)
+            env.clock.sleep(Math.min(100, end - now));
+        dealer.terminate();
+        dealerThread.joinWithLog();
+        stop = true;
+        for (Thread driver : drivers) driver.join();
+    }
+
+    /**
+     * The main loop of a synthetic player: presses the slots chosen by the strategy at the configured rate.
+     */
+    private void drive(Table table, Player player) {
+        // paced drivers wait on the game clock, so they take part in deciding when virtual time may advance
+        if (actionIntervalMillis > 0) env.clock.register();
+        Random random = new Random(player.id);
+        int[] target = new int[0];
+        int next = 0;
+        double nextAction = env.clock.currentTimeMillis();
+        while (!stop) {
+            if (strategy == Strategy.RANDOM) {
+                player.keyPressed(random.nextInt(env.config.tableSize));
+            } else {
+                if (next >= target.length) {
+                    target = table.keysForSet(player.id, findSetSlots(table, random));
+                    next = 0;
+                }
+                if (next < target.length) player.keyPressed(target[next++]);
+            }
+
+            if (actionIntervalMillis > 0) {
+                nextAction += actionIntervalMillis;
+                long wait = (long) Math.ceil(nextAction - env.clock.currentTimeMillis());
+                try {
+                    if (wait > 0) env.clock.sleep(wait);
+                    else if (wait < 0) nextAction = env.clock.currentTimeMillis(); // fell behind, do not burst
+                } catch (InterruptedException e) {
+                    break;
+                }
+            } else {
+                Thread.yield();
+            }
+        }
+        env.clock.unregister();
+    }
+
+    /**
+     * @return - the slots of a legal set on the table (the first one for the adversarial strategy, a random one
+     * otherwise), or an empty array if there is none. The sets come from the table's cache, so the players search
+     * the table once per change between them.
+     */
+    private int[] findSetSlots(Table table, Random random) {
+        TableSets sets = table.sets();
+        if (sets.count() == 0) return new int[0];
+        return sets.slots(strategy == Strategy.ADVERSARIAL ? 0 : random.nextInt(sets.count()));
+    }
+
+    /**
+     * @return - the throughput and latency summary of the run.
+     */
+    String report(long elapsedMillis, double actionsPerSecond) {
+        double seconds = elapsedMillis / 1000.0;
+        Metrics.Histogram latency = env.metrics.histogram(Metrics.CLAIM_LATENCY);
+        long points = env.metrics.counter(Metrics.POINTS).get();
+        long penalties = env.metrics.counter(Metrics.PENALTIES).get();
+        long prechecked = env.metrics.counter(Metrics.CLAIM_PRECHECK_REJECTED).get();
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "load: %d players, strategy %s, %s actions/s per player, %.1f s%s%n",
+                players, strategy.name().toLowerCase(Locale.ROOT),
+                actionsPerSecond > 0 ? Double.toString(actionsPerSecond) : "unlimited", seconds,
+                env.clock instanceof VirtualClock ? " (virtual time)" : ""));
+        sb.append(String.format(Locale.ROOT, "claims: %d (%.1f/s), accepted sets: %d (%.1f/min), rejected: %d "
+                        + "(and %d by the players before reaching the dealer)%n", latency.count(),
+                latency.count() / seconds, points, points / (seconds / 60.0), penalties - prechecked, prechecked));
+        sb.append(String.format(Locale.ROOT, "claim latency: p50=%.3fms p99=%.3fms p999=%.3fms max=%.3fms%n",
+                latency.percentile(0.5) / 1e6, latency.percentile(0.99) / 1e6, latency.percentile(0.999) / 1e6,
+                latency.max() / 1e6));
+        if (env.config.lockProfiling) sb.append(LockProfiler.report(env.metrics));
+        sb.append(env.metrics.dump());
+        return sb.toString();
+    }
+}
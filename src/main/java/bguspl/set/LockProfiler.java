@@ -0,0 +1,148 @@
+package bguspl.set;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Opt-in profiling of the game's synchronization points (config.lockProfiling): for each lock, or each lock of an
+ * array of them (e.g. every table slot), the time waited to acquire it, the time it was held and how many
+ * acquisitions found it busy. The values are ordinary metrics ("lock.[name].wait", "lock.[name].hold" and
+ * "lock.[name].contended"), so they are exported with the others, and report() ranks the locks by the total time
+ * threads waited for them.
+ *
+ * A profiled section looks like this (the three calls are no-ops when profiling is disabled):
+ * <pre>
+ *     long at = locks.acquiring(site, site.held());
+ *     synchronized (monitor) {
+ *         at = locks.acquired(site, at);
+ *         ...
+ *         locks.released(site, at);
+ *     }
+ * </pre>
+ * A monitor does not tell whether another thread holds it, so each site counts its own holders; a section that is not
+ * profiled is therefore not seen as contention by the profiled ones.
+ */
+public class LockProfiler {
+
+    /**
+     * The metric names of a site are PREFIX + name + one of the suffixes.
+     */
+    public static final String PREFIX = "lock.";
+    private static final String WAIT = ".wait";
+    private static final String HOLD = ".hold";
+    private static final String CONTENDED = ".contended";
+
+    /**
+     * A profiled lock.
+     */
+    public static final class Site {
+
+        private final Metrics.Histogram wait;
+        private final Metrics.Histogram hold;
+        private final Metrics.Counter contended;
+        private final AtomicInteger holders = new AtomicInteger();
+
+        private Site(Metrics.Histogram wait, Metrics.Histogram hold, Metrics.Counter contended) {
+            this.wait = wait;
+            this.hold = hold;
+            this.contended = contended;
+        }
+
+        /**
+         * @return - true iff a profiled section holds the lock.
+         */
+        public boolean held() {
+            return holders.get() > 0;
+        }
+    }
+
+    private final boolean enabled;
+    private final Metrics metrics;
+
+    /**
+     * @param enabled - false to make all the calls no-ops.
+     * @param metrics - where the measurements are recorded.
+     */
+    public LockProfiler(boolean enabled, Metrics metrics) {
+        this.enabled = enabled;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param name - the name of the lock, e.g. "table.slot.3".
+     * @return - the site to profile the lock with (its metrics are created only if profiling is enabled).
+     */
+    public Site site(String name) {
+        if (!enabled) return new Site(null, null, null);
+        return new Site(metrics.histogram(PREFIX + name + WAIT), metrics.histogram(PREFIX + name + HOLD),
+                metrics.counter(PREFIX + name + CONTENDED));
+    }
+
+    /**
+     * Called just before acquiring a lock.
+     *
+     * @param busy - true iff the lock is known to be held (e.g. site.held() for a monitor).
+     * @return - the time the acquisition started, for acquired().
+     */
+    public long acquiring(Site site, boolean busy) {
+        if (!enabled) return 0;
+        if (busy) site.contended.increment();
+        return System.nanoTime();
+    }
+
+    /**
+     * Called just after acquiring a lock.
+     *
+     * @param since - the value returned by acquiring().
+     * @return - the time the lock was acquired, for released().
+     */
+    public long acquired(Site site, long since) {
+        if (!enabled) return 0;
+        long now = System.nanoTime();
+        site.wait.record(now - since);
+        site.holders.incrementAndGet();
+        return now;
+    }
+
+    /**
+     * Called just before releasing a lock.
+     *
+     * @param since - the value returned by acquired().
+     */
+    public void released(Site site, long since) {
+        if (!enabled) return;
+        site.holders.decrementAndGet();
+        site.hold.recordSince(since);
+    }
+
+    /**
+     * @return - the profiled locks, the ones threads waited for the longest in total first: acquisitions, the share
+     * found busy, the total and mean wait, the p99 wait and the mean hold time.
+     */
+    public static String report(Metrics metrics) {
+        List<String> names = new ArrayList<>();
+        for (String name : metrics.histogramNames(PREFIX))
+            if (name.endsWith(WAIT)) names.add(name.substring(PREFIX.length(), name.length() - WAIT.length()));
+        names.sort((a, b) -> Long.compare(metrics.histogram(PREFIX + b + WAIT).sum(),
+                metrics.histogram(PREFIX + a + WAIT).sum()));
+
+        StringWriter out = new StringWriter();
+        PrintWriter writer = new PrintWriter(out);
+        writer.printf("locks by total wait%n");
+        writer.printf("  %-22s %10s %9s %12s %10s %10s %10s%n", "lock", "acquired", "busy", "wait total",
+                "wait mean", "wait p99", "hold mean");
+        for (String name : names) {
+            Metrics.Histogram wait = metrics.histogram(PREFIX + name + WAIT);
+            Metrics.Histogram hold = metrics.histogram(PREFIX + name + HOLD);
+            long contended = metrics.counter(PREFIX + name + CONTENDED).get();
+            writer.printf("  %-22s %10d %8.1f%% %10.1fms %8.1fus %8.1fus %8.1fus%n", name, wait.count(),
+                    wait.count() == 0 ? 0 : 100.0 * contended / wait.count(), wait.sum() / 1e6, wait.mean() / 1000.0,
+                    wait.percentile(0.99) / 1000.0, hold.mean() / 1000.0);
+        }
+        writer.flush();
+        return out.toString();
+    }
+}
@@ -4,12 +4,20 @@ import bguspl.set.ex.Dealer;
 import bguspl.set.ex.Player;
 import bguspl.set.ex.Table;
 
+import javax.management.ObjectName;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.*;
 
 /**
@@ -57,13 +65,47 @@ public class Main {
         }
         ui = new UserInterfaceDecorator(logger, util, ui);
 
-        Env env = new Env(logger, config, ui, util);
+        Clock clock = new RealTimeClock();
+        GameCheckpoint checkpoint = readCheckpoint(config, logger);
+        long seed = checkpoint != null ? checkpoint.seed : new Random().nextLong();
+        GameJournal journal = openJournal(config, clock, seed, logger);
+        Env env = new Env(logger, config, ui, util, new Metrics(), clock, task -> new Thread(task).start(), seed,
+                journal);
 
         // create the game entities
         Table table = new Table(env);
         dealer = new Dealer(env, table, players);
         for (int i = 0; i < players.length; i++)
             players[i] = new Player(env, dealer, table, i, i < env.config.humanPlayers);
+        if (checkpoint != null) {
+            try {
+                dealer.resume(checkpoint);
+            } catch (IllegalArgumentException e) {
+                logger.severe("cannot resume from " + config.checkpointFile + ": " + e.getMessage());
+            }
+        }
+
+        // expose the live game values over JMX
+        GameTelemetry telemetry = new GameTelemetry(env, table, dealer, players);
+        ObjectName telemetryName = telemetry.register(GameTelemetry.NAME);
+
+        // start the metrics thread (if periodic dumps are requested)
+        ThreadLogger metricsThread = null;
+        if (!config.metricsFile.isEmpty() && config.metricsDumpMillis > 0) {
+            Path metricsFile = Paths.get(config.metricsFile);
+            metricsThread = new ThreadLogger(() -> env.metrics.dumpPeriodically(metricsFile, config.metricsDumpMillis,
+                    logger), "metrics", logger);
+            metricsThread.setDaemon(true);
+            metricsThread.startWithLog();
+        }
+
+        // start the checkpoint thread (if checkpoints are requested)
+        ThreadLogger checkpointThread = null;
+        if (!config.checkpointFile.isEmpty() && config.checkpointMillis > 0) {
+            checkpointThread = new ThreadLogger(() -> writeCheckpoints(env), "checkpoint", logger);
+            checkpointThread.setDaemon(true);
+            checkpointThread.startWithLog();
+        }
 
         // start the dealer thread
         ThreadLogger dealerThread = new ThreadLogger(dealer, "dealer", logger);
@@ -72,9 +114,24 @@ public class Main {
         try {
             // shutdown stuff
             dealerThread.joinWithLog();
+            // a game closed in the middle is recorded when it is resumed and finished
+            if (!xButtonPressed && dealer.completed()) recordGame(env, players);
             if (!xButtonPressed && config.endGamePauseMillies > 0) Thread.sleep(config.endGamePauseMillies);
         } catch (InterruptedException ignored) {
         } finally {
+            if (metricsThread != null) metricsThread.interrupt();
+            if (checkpointThread != null) {
+                checkpointThread.interrupt();
+                try {
+                    checkpointThread.joinWithLog();
+                } catch (InterruptedException ignored) {
+                }
+                // a finished game is not resumed, one closed in the middle is
+                if (!xButtonPressed) deleteCheckpoint(env);
+            }
+            telemetry.unregister(telemetryName);
+            writeMetrics(env);
+            closeJournal(env);
             logger.severe("thanks for playing... it was fun!");
             System.out.println("Thanks for playing... it was fun!");
             ThreadLogger.logStop(logger, Thread.currentThread().getName());
@@ -83,6 +140,79 @@ public class Main {
         }
     }
 
+    private static void writeMetrics(Env env) {
+        if (env.config.lockProfiling) env.logger.info(LockProfiler.report(env.metrics));
+        if (env.config.metricsFile.isEmpty()) return;
+        try {
+            env.metrics.appendTo(Paths.get(env.config.metricsFile));
+        } catch (IOException e) {
+            env.logger.severe("cannot write metrics to " + env.config.metricsFile + ": " + e.getMessage());
+        }
+    }
+
+    private static GameJournal openJournal(Config config, Clock clock, long seed, Logger logger) {
+        if (config.journalFile.isEmpty()) return GameJournal.DISABLED;
+        try {
+            return GameJournal.open(Paths.get(config.journalFile), clock, seed);
+        } catch (IOException e) {
+            logger.severe("cannot open journal " + config.journalFile + ": " + e.getMessage());
+            return GameJournal.DISABLED;
+        }
+    }
+
+    private static void closeJournal(Env env) {
+        try {
+            env.journal.close();
+        } catch (IOException e) {
+            env.logger.severe("cannot close journal " + env.config.journalFile + ": " + e.getMessage());
+        }
+    }
+
+    private static void recordGame(Env env, Player[] players) {
+        Leaderboard leaderboard = Leaderboard.open(env.config, env.logger);
+        if (leaderboard == null) return;
+        try {
+            leaderboard.recordGame(env.config, players, dealer.winners());
+            leaderboard.close();
+        } catch (IOException e) {
+            env.logger.severe("cannot write leaderboard " + env.config.leaderboardFile + ": " + e.getMessage());
+        }
+    }
+
+    private static GameCheckpoint readCheckpoint(Config config, Logger logger) {
+        if (config.checkpointFile.isEmpty()) return null;
+        try {
+            return GameCheckpoint.read(Paths.get(config.checkpointFile));
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            logger.severe("cannot read checkpoint " + config.checkpointFile + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static void writeCheckpoints(Env env) {
+        Path file = Paths.get(env.config.checkpointFile);
+        while (true) {
+            try {
+                Thread.sleep(env.config.checkpointMillis);
+                dealer.checkpoint().get().write(file);
+            } catch (InterruptedException | CancellationException e) {
+                return;
+            } catch (ExecutionException | IOException e) {
+                env.logger.severe("cannot write checkpoint " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static void deleteCheckpoint(Env env) {
+        try {
+            Files.deleteIfExists(Paths.get(env.config.checkpointFile));
+        } catch (IOException e) {
+            env.logger.severe("cannot delete checkpoint " + env.config.checkpointFile + ": " + e.getMessage());
+        }
+    }
+
     private static Logger initLogger() {
 
         //just to make our log file nicer :)
@@ -0,0 +1,255 @@
+package bguspl.set;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * An in-process registry of counters and latency histograms. Recording is lock-free so it can be called from the
+ * player, dealer and table hot paths; exporting walks a snapshot of the values and never blocks the recorders.
+ */
+public class Metrics {
+
+    /**
+     * Metric names used by the game entities.
+     */
+    public static final String CLAIM_WAIT = "claim.wait";
+    public static final String CLAIM_LATENCY = "claim.latency";
+    public static final String CLAIM_VERIFY = "claim.verify";
+    public static final String CLAIM_STALE = "claim.stale";
+    public static final String CLAIM_PRECHECK_REJECTED = "claim.precheck.rejected";
+    public static final String CLAIM_PRECHECK_LATENCY = "claim.precheck.latency";
+    public static final String TABLE_WRITE_LOCK_HOLD = "table.writeLock.hold";
+    public static final String TABLE_FENCE_HOLD = "table.fence.hold";
+    public static final String CHECKPOINT_LOCK_HOLD = "checkpoint.writeLock.hold";
+    public static final String TOKENS_PLACED = "tokens.placed";
+    public static final String TABLE_SETS_CACHED = "table.sets.cached";
+    public static final String TABLE_SETS_COMPUTED = "table.sets.computed";
+    public static final String TOKENS_REMOVED = "tokens.removed";
+    public static final String RESHUFFLES = "dealer.reshuffles";
+    public static final String POINTS = "player.points";
+    public static final String PENALTIES = "player.penalties";
+
+    /**
+     * A monotonically increasing counter.
+     */
+    public static class Counter {
+
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long delta) {
+            value.add(delta);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    /**
+     * A histogram of non-negative values (nanoseconds by convention) with log-linear buckets: every power of two is
+     * split into 8 sub-buckets, so reported percentiles are accurate to within 12.5%.
+     */
+    public static class Histogram {
+
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(Long.SIZE * SUB_BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        public void record(long value) {
+            if (value < 0) value = 0;
+            buckets.incrementAndGet(bucketOf(value));
+            count.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        /**
+         * Records the time elapsed since start.
+         *
+         * @param startNanos - a value previously returned by System.nanoTime().
+         */
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        public long count() {
+            return count.sum();
+        }
+
+        public long sum() {
+            return sum.sum();
+        }
+
+        public double mean() {
+            long n = count.sum();
+            return n == 0 ? 0 : (double) sum.sum() / n;
+        }
+
+        public long max() {
+            return max.get();
+        }
+
+        /**
+         * @param fraction - the percentile as a fraction between 0 and 1 (e.g. 0.99).
+         * @return - the upper bound of the bucket holding the requested percentile (0 if nothing was recorded).
+         */
+        public long percentile(double fraction) {
+            long n = count.sum();
+            if (n == 0) return 0;
+            long rank = (long) Math.ceil(fraction * n);
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= Math.max(1, rank)) return Math.min(upperBoundOf(i), max());
+            }
+            return max();
+        }
+
+        private static int bucketOf(long value) {
+            if (value < SUB_BUCKETS) return (int) value;
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int shift = exponent - SUB_BUCKET_BITS;
+            int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+            return (shift + 1) * SUB_BUCKETS + sub;
+        }
+
+        private static long upperBoundOf(int bucket) {
+            if (bucket < SUB_BUCKETS) return bucket;
+            int shift = bucket / SUB_BUCKETS - 1;
+            long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+            return lower + (1L << shift) - 1;
+        }
+    }
+
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final long startNanos = System.nanoTime();
+
+    /**
+     * @return - the counter with the given name, created on first use. Callers on hot paths should keep the result.
+     */
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, n -> new Counter());
+    }
+
+    /**
+     * @return - the histogram with the given name, created on first use. Callers on hot paths should keep the result.
+     */
+    public Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, n -> new Histogram());
+    }
+
+    /**
+     * @return - the names of the histograms starting with the prefix, sorted.
+     */
+    public SortedSet<String> histogramNames(String prefix) {
+        SortedSet<String> names = new TreeSet<>();
+        for (String name : histograms.keySet()) if (name.startsWith(prefix)) names.add(name);
+        return names;
+    }
+
+    /**
+     * @return - a human readable report of all metrics (latencies in microseconds).
+     */
+    public String dump() {
+        double seconds = elapsedSeconds();
+        StringWriter out = new StringWriter();
+        PrintWriter writer = new PrintWriter(out);
+        writer.printf("metrics after %.1f seconds%n", seconds);
+        new TreeMap<>(counters).forEach((name, counter) ->
+                writer.printf("  %-22s count=%d rate=%.1f/s%n", name, counter.get(), counter.get() / seconds));
+        new TreeMap<>(histograms).forEach((name, h) ->
+                writer.printf("  %-22s count=%d mean=%.1fus p50=%.1fus p90=%.1fus p99=%.1fus p999=%.1fus max=%.1fus%n",
+                        name, h.count(), h.mean() / 1000.0, micros(h.percentile(0.5)), micros(h.percentile(0.9)),
+                        micros(h.percentile(0.99)), micros(h.percentile(0.999)), micros(h.max())));
+        writer.flush();
+        return out.toString();
+    }
+
+    /**
+     * @param header - true iff the column names line should be included.
+     * @return - one CSV line per metric, stamped with the current time (latencies in microseconds).
+     */
+    public String toCsv(boolean header) {
+        long now = System.currentTimeMillis();
+        double seconds = elapsedSeconds();
+        StringBuilder sb = new StringBuilder();
+        if (header) sb.append("timestamp,metric,count,rate_per_sec,mean_us,p50_us,p90_us,p99_us,p999_us,max_us\n");
+        new TreeMap<>(counters).forEach((name, counter) -> sb.append(now).append(',').append(name).append(',')
+                .append(counter.get()).append(',').append(decimal(counter.get() / seconds)).append(",,,,,,\n"));
+        new TreeMap<>(histograms).forEach((name, h) -> sb.append(now).append(',').append(name).append(',')
+                .append(h.count()).append(',').append(decimal(h.count() / seconds)).append(',')
+                .append(decimal(h.mean() / 1000.0)).append(',')
+                .append(decimal(micros(h.percentile(0.5)))).append(',')
+                .append(decimal(micros(h.percentile(0.9)))).append(',')
+                .append(decimal(micros(h.percentile(0.99)))).append(',')
+                .append(decimal(micros(h.percentile(0.999)))).append(',')
+                .append(decimal(micros(h.max()))).append('\n'));
+        return sb.toString();
+    }
+
+    /**
+     * Appends the current values to a file, as CSV if its name ends with ".csv" and as a text report otherwise.
+     *
+     * @param file - the file to append to (created if needed).
+     */
+    public void appendTo(Path file) throws IOException {
+        boolean csv = file.getFileName().toString().endsWith(".csv");
+        String text = csv ? toCsv(!Files.exists(file) || Files.size(file) == 0) : dump();
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Dumps the metrics to a file every period until the calling thread is interrupted.
+     *
+     * @param file         - the file to append to.
+     * @param periodMillis - the time between dumps.
+     * @param logger       - used to report write failures.
+     */
+    public void dumpPeriodically(Path file, long periodMillis, Logger logger) {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Thread.sleep(periodMillis);
+                appendTo(file);
+            }
+        } catch (InterruptedException ignored) {
+        } catch (IOException e) {
+            logger.severe("cannot write metrics to " + file + ": " + e.getMessage());
+        }
+    }
+
+    private double elapsedSeconds() {
+        return Math.max(1e-3, (System.nanoTime() - startNanos) / 1e9);
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1000.0;
+    }
+
+    private static String decimal(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+}
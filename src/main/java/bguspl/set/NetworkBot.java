@@ -0,0 +1,255 @@
+package bguspl.set;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * Remote bot players for a NetworkServer, all driven by one selector thread. Each bot keeps its own copy of the table
+ * from the frames the server sends, and presses the slots of a legal set at the configured rate.
+ *
+ * Usage: mvn exec:java -Dexec.mainClass=bguspl.set.NetworkBot -Dexec.args="[config file] [Key=Value ...]"
+ * Settings: BotConnections (default 100), BotActionsPerSecond (per bot, default 10), NetHost (default localhost),
+ * NetPort (default 7777) and BotLocalServer (true to start a NetworkServer in this JVM first, on a free port with the
+ * given configuration, default false). Prints the frame and set counts once every game has ended.
+ */
+public class NetworkBot {
+
+    /**
+     * A bot connection and the table as it saw it.
+     */
+    private static final class Bot {
+
+        final SocketChannel channel;
+        final ByteBuffer in = ByteBuffer.allocateDirect(64 * 1024);
+        final ByteBuffer out = ByteBuffer.allocateDirect(256);
+        int player = -1;
+        int[] slotToCard = new int[0];
+        boolean[] tokens = new boolean[0];
+        boolean frozen;
+        boolean over;
+        int score;
+        int[] keys = new int[0];
+        int nextKey;
+
+        Bot(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    private final Config config;
+    private final Util util;
+    private final long actionIntervalNanos;
+    private final Selector selector;
+    private final List<Bot> bots = new ArrayList<>();
+
+    private long framesIn;
+    private long keysOut;
+    private long sets;
+    private long rejected;
+
+    NetworkBot(Config config, Util util, double actionsPerSecond) throws IOException {
+        this.config = config;
+        this.util = util;
+        this.actionIntervalNanos = (long) (1e9 / actionsPerSecond);
+        this.selector = Selector.open();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Logger logger = Logger.getLogger("SetGameBotLogger");
+        logger.setUseParentHandlers(false);
+
+        String configFile = args.length > 0 && !args[0].contains("=") ? args[0] : "config.properties";
+        Properties properties = Config.loadProperties(configFile, logger);
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            if (split > 0) properties.setProperty(arg.substring(0, split).trim(), arg.substring(split + 1).trim());
+        }
+        properties.setProperty("Hints", "False");
+        Config config = new Config(logger, properties);
+        int connections = Integer.parseInt(properties.getProperty("BotConnections", "100").trim());
+        double rate = Double.parseDouble(properties.getProperty("BotActionsPerSecond", "10").trim());
+        String host = properties.getProperty("NetHost", "localhost").trim();
+        int port = Integer.parseInt(properties.getProperty("NetPort", "7777").trim());
+
+        NetworkServer server = null;
+        Thread serverThread = null;
+        if (Boolean.parseBoolean(properties.getProperty("BotLocalServer", "False").trim())) {
+            int maxGames = (connections + config.humanPlayers - 1) / config.humanPlayers;
+            server = new NetworkServer(logger, config, 0, maxGames);
+            port = server.port();
+            serverThread = new ThreadLogger(server, "network", logger);
+            serverThread.start();
+        }
+
+        NetworkBot client = new NetworkBot(config, new UtilImpl(config), rate);
+        long start = System.nanoTime();
+        client.connect(new InetSocketAddress(host, port), connections);
+        client.run();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf(Locale.ROOT, "bots: %d connections, %.1f s: %d frames received (%.0f/s), %d keys sent, "
+                        + "%d sets, %d rejected%n", connections, seconds, client.framesIn, client.framesIn / seconds,
+                client.keysOut, client.sets, client.rejected);
+        if (server != null) {
+            server.shutdown();
+            serverThread.join();
+            System.out.print(server.metrics().dump());
+        }
+    }
+
+    void connect(InetSocketAddress address, int connections) throws IOException {
+        for (int i = 0; i < connections; i++) {
+            SocketChannel channel = SocketChannel.open(address);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.configureBlocking(false);
+            Bot bot = new Bot(channel);
+            channel.register(selector, SelectionKey.OP_READ, bot);
+            bots.add(bot);
+        }
+    }
+
+    /**
+     * Plays until the server closed every connection.
+     */
+    void run() throws IOException {
+        long nextAction = System.nanoTime();
+        while (!selector.keys().isEmpty()) {
+            long wait = Math.max(1, (nextAction - System.nanoTime()) / 1_000_000);
+            selector.select(wait);
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                if (key.isValid() && key.isReadable()) read(key, (Bot) key.attachment());
+            }
+            if (System.nanoTime() - nextAction >= 0) {
+                nextAction += actionIntervalNanos;
+                for (Bot bot : bots) if (bot.channel.isOpen()) act(bot);
+            }
+        }
+    }
+
+    private void read(SelectionKey key, Bot bot) throws IOException {
+        int read;
+        try {
+            read = bot.channel.read(bot.in);
+        } catch (IOException e) {
+            read = -1;
+        }
+        if (read < 0) {
+            key.cancel();
+            bot.channel.close();
+            return;
+        }
+        ByteBuffer in = bot.in;
+        in.flip();
+        while (in.remaining() >= NetworkServer.SERVER_FRAME) {
+            int type = in.get();
+            int player = in.get() & 0xff;
+            int slot = in.get() & 0xff;
+            in.get();
+            int value = in.getInt();
+            framesIn++;
+            handle(bot, type, player, slot, value);
+        }
+        in.compact();
+    }
+
+    private void handle(Bot bot, int type, int player, int slot, int value) {
+        switch (type) {
+            case NetworkServer.WELCOME:
+                bot.player = player;
+                bot.slotToCard = new int[slot];
+                Arrays.fill(bot.slotToCard, -1);
+                bot.tokens = new boolean[slot];
+                break;
+            case NetworkServer.PLACE_CARD:
+                bot.slotToCard[slot] = value;
+                break;
+            case NetworkServer.REMOVE_CARD:
+                bot.slotToCard[slot] = -1;
+                bot.tokens[slot] = false;
+                bot.keys = new int[0];
+                break;
+            case NetworkServer.PLACE_TOKEN:
+                if (player == bot.player) bot.tokens[slot] = true;
+                break;
+            case NetworkServer.REMOVE_TOKEN:
+                if (player == bot.player) bot.tokens[slot] = false;
+                break;
+            case NetworkServer.REMOVE_TOKENS:
+                if (slot == NetworkServer.ALL_SLOTS) Arrays.fill(bot.tokens, false);
+                else bot.tokens[slot] = false;
+                break;
+            case NetworkServer.FREEZE:
+                if (player == bot.player) bot.frozen = value > 0;
+                break;
+            case NetworkServer.SCORE:
+                if (player == bot.player && value > bot.score) {
+                    sets += value - bot.score;
+                    bot.score = value;
+                }
+                break;
+            case NetworkServer.GAME_OVER:
+                bot.over = true;
+                break;
+            case NetworkServer.REJECTED:
+                rejected++;
+                bot.over = true;
+                break;
+            default:
+        }
+    }
+
+    /**
+     * Presses the next slot of the bot's current target set, choosing a new one when it has none.
+     */
+    private void act(Bot bot) throws IOException {
+        if (bot.player < 0 || bot.frozen || bot.over) return;
+        if (bot.nextKey >= bot.keys.length) {
+            bot.keys = keysForSet(bot);
+            bot.nextKey = 0;
+            if (bot.keys.length == 0) return;
+        }
+        bot.out.clear();
+        bot.out.put((byte) NetworkServer.KEY).put((byte) bot.keys[bot.nextKey++]);
+        bot.out.flip();
+        bot.channel.write(bot.out);
+        keysOut++;
+    }
+
+    /**
+     * @return - the slots to press so that the bot's tokens end up on a legal set: first the ones holding tokens that
+     * are not part of it, then the ones of the set without a token.
+     */
+    private int[] keysForSet(Bot bot) {
+        List<Integer> cards = new ArrayList<>();
+        int[] cardToSlot = new int[config.deckSize];
+        for (int slot = 0; slot < bot.slotToCard.length; slot++) {
+            if (bot.slotToCard[slot] >= 0) {
+                cards.add(bot.slotToCard[slot]);
+                cardToSlot[bot.slotToCard[slot]] = slot;
+            }
+        }
+        List<int[]> found = util.findSets(cards, Integer.MAX_VALUE);
+        if (found.isEmpty()) return new int[0];
+        // bots of the same game go for different sets when there are enough of them
+        boolean[] inSet = new boolean[bot.tokens.length];
+        for (int card : found.get(bot.player % found.size())) inSet[cardToSlot[card]] = true;
+        List<Integer> keys = new ArrayList<>();
+        for (int slot = 0; slot < bot.tokens.length; slot++) if (bot.tokens[slot] && !inSet[slot]) keys.add(slot);
+        for (int slot = 0; slot < bot.tokens.length; slot++) if (inSet[slot] && !bot.tokens[slot]) keys.add(slot);
+        return keys.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
@@ -0,0 +1,471 @@
+package bguspl.set;
+
+import bguspl.set.ex.Player;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+/**
+ * A non-blocking game server for remote players. A single selector thread accepts the connections, seats every
+ * config.humanPlayers of them in a new game of a GameServer, turns their key press frames into Player.keyPressed calls
+ * and sends them the game as it happens: the calls of the game's user interface become frames on their connections.
+ *
+ * The protocol is binary. A client sends CLIENT_FRAME bytes frames: the KEY type and a slot. The server sends
+ * SERVER_FRAME bytes frames: type (byte), player (byte), slot (byte), unused (byte) and value (int, big endian).
+ * The game threads append the frames to a per connection buffer and the selector thread writes all that accumulated
+ * in one write per connection, so neither side allocates per frame. A client too slow to keep up with its buffer is
+ * disconnected. A game whose remote players all disconnected is ended, so it frees its place among ServerMaxGames.
+ *
+ * Usage: mvn exec:java -Dexec.mainClass=bguspl.set.NetworkServer -Dexec.args="[config file] [Key=Value ...]"
+ * Any config.properties key can be overridden on the command line (HumanPlayers is the number of remote players per
+ * game), in addition to NetPort (default 7777) and ServerMaxGames (default 100). See NetworkBot for a client.
+ */
+public class NetworkServer implements Runnable {
+
+    public static final int CLIENT_FRAME = 2;
+    public static final int SERVER_FRAME = 8;
+
+    /**
+     * Client frame types.
+     */
+    public static final int KEY = 1;
+
+    /**
+     * Server frame types.
+     */
+    public static final int WELCOME = 1; // player: the receiver's player, slot: the table size, value: the players
+    public static final int PLACE_CARD = 2; // slot, value: the card
+    public static final int REMOVE_CARD = 3; // slot
+    public static final int PLACE_TOKEN = 4; // player, slot
+    public static final int REMOVE_TOKEN = 5; // player, slot
+    public static final int REMOVE_TOKENS = 6; // slot (ALL_SLOTS for all of them)
+    public static final int COUNTDOWN = 7; // player: 1 if warning, value: milliseconds
+    public static final int FREEZE = 8; // player, value: milliseconds
+    public static final int SCORE = 9; // player, value: the score
+    public static final int WINNER = 10; // player
+    public static final int GAME_OVER = 11;
+    public static final int REJECTED = 12; // the server is full
+
+    public static final int ALL_SLOTS = 255;
+
+    /**
+     * Metric names of the network server.
+     */
+    public static final String CONNECTIONS = "net.connections";
+    public static final String FRAMES_IN = "net.frames.in";
+    public static final String FRAMES_OUT = "net.frames.out";
+    public static final String WRITES = "net.writes";
+    public static final String SLOW_CLIENTS = "net.clients.slow";
+    public static final String ABANDONED_GAMES = "net.games.abandoned";
+
+    private static final int IN_BUFFER = 1024;
+    private static final int OUT_BUFFER = 64 * 1024;
+
+    /**
+     * A client connection.
+     */
+    private final class Connection {
+
+        final SocketChannel channel;
+        final SelectionKey key;
+        final ByteBuffer in = ByteBuffer.allocateDirect(IN_BUFFER);
+
+        /**
+         * The frames not written yet (guarded by this).
+         */
+        final ByteBuffer out = ByteBuffer.allocateDirect(OUT_BUFFER);
+
+        /**
+         * True while out holds frames the selector thread was not asked to write yet.
+         */
+        volatile boolean dirty;
+
+        /**
+         * True once the connection should be closed when its frames were written.
+         */
+        volatile boolean closing;
+
+        volatile Player player;
+
+        /**
+         * The group the connection was seated with (selector thread only, null while in the lobby).
+         */
+        Seating seating;
+
+        Connection(SocketChannel channel) throws IOException {
+            this.channel = channel;
+            this.key = channel.register(selector, SelectionKey.OP_READ, this);
+        }
+
+        synchronized void send(int type, int player, int slot, int value) {
+            if (closing) return;
+            if (out.remaining() < SERVER_FRAME) {
+                slowClients.increment();
+                closing = true;
+            } else {
+                out.put((byte) type).put((byte) player).put((byte) slot).put((byte) 0).putInt(value);
+                framesOut.increment();
+            }
+            if (!dirty) {
+                dirty = true;
+                requestFlush();
+            }
+        }
+
+        void closeWhenFlushed() {
+            closing = true;
+            dirty = true;
+            requestFlush();
+        }
+    }
+
+    /**
+     * The connections seated in the same game (selector thread only): the game ends once all of them closed, so an
+     * abandoned game does not keep its admission permit.
+     */
+    private static final class Seating {
+
+        final GameServer.Game game;
+        int open;
+
+        Seating(GameServer.Game game, int open) {
+            this.game = game;
+            this.open = open;
+        }
+    }
+
+    /**
+     * The user interface of a game: sends every call to the game's connections.
+     */
+    private static final class Broadcast implements UserInterface {
+
+        private final Connection[] connections;
+
+        Broadcast(Connection[] connections) {
+            this.connections = connections;
+        }
+
+        private void send(int type, int player, int slot, int value) {
+            for (Connection connection : connections) connection.send(type, player, slot, value);
+        }
+
+        @Override
+        public void placeCard(int card, int slot) {
+            send(PLACE_CARD, 0, slot, card);
+        }
+
+        @Override
+        public void removeCard(int slot) {
+            send(REMOVE_CARD, 0, slot, 0);
+        }
+
+        @Override
+        public void placeToken(int player, int slot) {
+            send(PLACE_TOKEN, player, slot, 0);
+        }
+
+        @Override
+        public void removeTokens() {
+            send(REMOVE_TOKENS, 0, ALL_SLOTS, 0);
+        }
+
+        @Override
+        public void removeTokens(int slot) {
+            send(REMOVE_TOKENS, 0, slot, 0);
+        }
+
+        @Override
+        public void removeToken(int player, int slot) {
+            send(REMOVE_TOKEN, player, slot, 0);
+        }
+
+        @Override
+        public void setCountdown(long millies, boolean warn) {
+            send(COUNTDOWN, warn ? 1 : 0, 0, (int) millies);
+        }
+
+        @Override
+        public void setElapsed(long millies) {
+            send(COUNTDOWN, 0, 0, (int) millies);
+        }
+
+        @Override
+        public void setFreeze(int player, long millies) {
+            send(FREEZE, player, 0, (int) millies);
+        }
+
+        @Override
+        public void setScore(int player, int score) {
+            send(SCORE, player, 0, score);
+        }
+
+        @Override
+        public void announceWinner(int[] players) {
+            for (int player : players) send(WINNER, player, 0, 0);
+            send(GAME_OVER, 0, 0, 0);
+        }
+
+        @Override
+        public void dispose() {
+        }
+    }
+
+    private final Logger logger;
+    private final Config config;
+    private final GameServer games;
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final List<Connection> connections = new ArrayList<>();
+    private final Connection[] lobby;
+    private int waiting;
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private volatile boolean closed;
+
+    private final Metrics.Counter connectionsOpened;
+    private final Metrics.Counter framesIn;
+    private final Metrics.Counter framesOut;
+    private final Metrics.Counter writes;
+    private final Metrics.Counter slowClients;
+    private final Metrics.Counter abandonedGames;
+
+    /**
+     * @param logger   - the logger of the server and its games.
+     * @param config   - the configuration of the games; config.humanPlayers players per game play remotely.
+     * @param port     - the port to listen on (0 for any free port).
+     * @param maxGames - the maximal number of games running at the same time.
+     */
+    public NetworkServer(Logger logger, Config config, int port, int maxGames) throws IOException {
+        if (config.humanPlayers < 1) throw new IllegalArgumentException("no seats for remote players");
+        this.logger = logger;
+        this.config = config;
+        this.games = new GameServer(logger, config, new UtilImpl(config), new RealTimeClock(), maxGames,
+                new Random().nextLong());
+        this.lobby = new Connection[config.humanPlayers];
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), 1024);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        Metrics metrics = games.metrics();
+        connectionsOpened = metrics.counter(CONNECTIONS);
+        framesIn = metrics.counter(FRAMES_IN);
+        framesOut = metrics.counter(FRAMES_OUT);
+        writes = metrics.counter(WRITES);
+        slowClients = metrics.counter(SLOW_CLIENTS);
+        abandonedGames = metrics.counter(ABANDONED_GAMES);
+    }
+
+    /**
+     * @return - the port the server listens on.
+     */
+    public int port() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * @return - the games and network metrics.
+     */
+    public Metrics metrics() {
+        return games.metrics();
+    }
+
+    /**
+     * The selector thread.
+     */
+    @Override
+    public void run() {
+        try {
+            while (!closed) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) accept();
+                    else {
+                        Connection connection = (Connection) key.attachment();
+                        if (key.isReadable()) read(connection);
+                        if (key.isValid() && key.isWritable()) connection.dirty = true;
+                    }
+                }
+                flushRequested.set(false);
+                flush();
+            }
+        } catch (IOException e) {
+            logger.severe("network server failed: " + e);
+        } finally {
+            for (Connection connection : connections) close(connection);
+            try {
+                serverChannel.close();
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Stops accepting connections, ends the running games and stops the selector thread.
+     */
+    public void shutdown() throws InterruptedException {
+        closed = true;
+        selector.wakeup();
+        games.shutdown();
+    }
+
+    private void requestFlush() {
+        if (flushRequested.compareAndSet(false, true)) selector.wakeup();
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Connection connection = new Connection(channel);
+            connections.add(connection);
+            connectionsOpened.increment();
+            lobby[waiting++] = connection;
+            if (waiting == lobby.length) seat();
+        }
+    }
+
+    /**
+     * Starts a game for the connections in the lobby.
+     */
+    private void seat() {
+        Connection[] seated = lobby.clone();
+        waiting = 0;
+        GameServer.Game game = games.tryStart(new Broadcast(seated));
+        if (game == null) {
+            for (Connection connection : seated) {
+                connection.send(REJECTED, 0, 0, 0);
+                connection.closeWhenFlushed();
+            }
+            return;
+        }
+        Player[] players = game.players();
+        Seating seating = new Seating(game, seated.length);
+        for (int seat = 0; seat < seated.length; seat++) {
+            seated[seat].player = players[seat];
+            seated[seat].seating = seating;
+            seated[seat].send(WELCOME, seat, config.tableSize, players.length);
+        }
+        game.completion().thenAccept(done -> {
+            for (Connection connection : seated) connection.closeWhenFlushed();
+        });
+    }
+
+    private void read(Connection connection) {
+        ByteBuffer in = connection.in;
+        int read;
+        try {
+            read = connection.channel.read(in);
+        } catch (IOException e) {
+            read = -1;
+        }
+        if (read < 0) {
+            close(connection);
+            return;
+        }
+        in.flip();
+        while (in.remaining() >= CLIENT_FRAME) {
+            int type = in.get();
+            int slot = in.get() & 0xff;
+            framesIn.increment();
+            Player player = connection.player;
+            if (type == KEY && player != null && slot < config.tableSize) player.keyPressed(slot);
+        }
+        in.compact();
+    }
+
+    /**
+     * Writes the frames accumulated on every connection that has any.
+     */
+    private void flush() {
+        for (int i = 0; i < connections.size(); i++) {
+            Connection connection = connections.get(i);
+            if (!connection.dirty) continue;
+            boolean done;
+            synchronized (connection) {
+                connection.dirty = false;
+                ByteBuffer out = connection.out;
+                out.flip();
+                try {
+                    if (out.hasRemaining()) {
+                        connection.channel.write(out);
+                        writes.increment();
+                    }
+                } catch (IOException e) {
+                    out.clear();
+                    connection.closing = true;
+                }
+                done = !out.hasRemaining();
+                out.compact();
+            }
+            if (done && connection.closing) {
+                close(connection);
+                i--;
+            } else if (connection.key.isValid()) {
+                connection.key.interestOps(done ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+    }
+
+    private void close(Connection connection) {
+        connection.closing = true;
+        connection.key.cancel();
+        try {
+            connection.channel.close();
+        } catch (IOException ignored) {
+        }
+        if (connections.remove(connection)) {
+            for (int i = 0; i < waiting; i++) {
+                if (lobby[i] == connection) {
+                    lobby[i] = lobby[--waiting];
+                    lobby[waiting] = null;
+                    break;
+                }
+            }
+            Seating seating = connection.seating;
+            if (seating != null && --seating.open == 0 && !seating.game.isDone()) {
+                abandonedGames.increment();
+                seating.game.terminate();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Logger logger = Logger.getLogger("SetGameNetworkLogger");
+        logger.setUseParentHandlers(false);
+
+        String configFile = args.length > 0 && !args[0].contains("=") ? args[0] : "config.properties";
+        Properties properties = Config.loadProperties(configFile, logger);
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            if (split > 0) properties.setProperty(arg.substring(0, split).trim(), arg.substring(split + 1).trim());
+        }
+        // the players see the hints of their own client, if any
+        properties.setProperty("Hints", "False");
+
+        Config config = new Config(logger, properties);
+        int port = Integer.parseInt(properties.getProperty("NetPort", "7777").trim());
+        int maxGames = Integer.parseInt(properties.getProperty("ServerMaxGames", "100").trim());
+        NetworkServer server = new NetworkServer(logger, config, port, maxGames);
+        System.out.println("listening on port " + server.port() + ", " + config.humanPlayers + " players per game");
+        server.run();
+    }
+}
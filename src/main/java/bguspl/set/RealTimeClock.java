@@ -0,0 +1,17 @@
+package bguspl.set;
+
+/**
+ * A clock running on the system time.
+ */
+public class RealTimeClock implements Clock {
+
+    @Override
+    public long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public void sleep(long millis) throws InterruptedException {
+        Thread.sleep(millis);
+    }
+}
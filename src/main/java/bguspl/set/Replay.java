@@ -0,0 +1,331 @@
+package bguspl.set;
+
+import bguspl.set.ex.Dealer;
+import bguspl.set.ex.Player;
+import bguspl.set.ex.Table;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * Replays a journaled game: the same seed (so the same deck shuffles) and the same key presses, fed to a fresh
+ * Dealer, Table and Players running on a VirtualClock, so the delays, freezes and turn timeouts take no real time. The
+ * cards placed, the sets accepted and the final scores are then compared with the recording.
+ *
+ * A recorded game ran in real time, so its clock drifted (thread start up, sleeps oversleeping). Key presses are
+ * therefore not replayed at their recorded time, but at the same point of the game: after as many dealer countdown
+ * ticks and card placements/removals as had happened when they were recorded, and as long after the last of these
+ * card events as they were recorded after it.
+ *
+ * The replay must use the configuration of the recorded game. The game (Main) records in real time, where the
+ * countdown (counted in ticks) and the freezes (counted in time) drift apart, so a replay may depart from the
+ * recording, the same way on every run; where it departs is reported. The journal of a replay (ReplayJournal) is
+ * recorded on its VirtualClock, so replaying it again matches it.
+ *
+ * Usage: mvn exec:java -Dexec.mainClass=bguspl.set.Replay -Dexec.args="journal file [config file] [Key=Value ...]"
+ * Any config.properties key can be overridden on the command line, in addition to ReplayRuns (the number of times to
+ * replay the game, to use it as a benchmark workload, default 1) and ReplayJournal (a file to keep the journal of the
+ * last replay in, to compare it with the recording using JournalReader, default none). Exits with status 1 if a
+ * replay diverged.
+ */
+public class Replay {
+
+    /**
+     * The minimal game time between two dealer countdown ticks.
+     */
+    private static final long TICK_MILLIS = 10;
+
+    /**
+     * How long past the recorded end a replayed game may take to end by itself before it is terminated.
+     */
+    private static final long END_MARGIN_MILLIS = 100 * TICK_MILLIS;
+
+    /**
+     * The parts of a journal a replay needs and checks.
+     */
+    static class Recording {
+
+        long seed;
+        long startMillis;
+        long lastMillis;
+        boolean gameOver;
+        int endCards = -1;
+        int endTicks;
+        long endOffset;
+        int players;
+        int keys;
+        int[] keyCards = new int[1024];
+        int[] keyTicks = new int[1024];
+        long[] keyOffsets = new long[1024];
+        int[] keyPlayers = new int[1024];
+        int[] keySlots = new int[1024];
+        int cardEvents;
+        long lastCardEvent;
+        int placements;
+        long[] placed = new long[256];
+        int sets;
+        int[] setPlayers = new int[64];
+
+        static Recording read(Path file) throws IOException {
+            Recording recording = new Recording();
+            try (JournalReader reader = new JournalReader(file)) {
+                recording.seed = reader.seed;
+                recording.startMillis = reader.startMillis;
+                recording.lastMillis = reader.startMillis;
+                recording.lastCardEvent = reader.startMillis;
+                reader.forEach(recording::add);
+            }
+            return recording;
+        }
+
+        private void add(long time, long nanos, int type, int player, int slot, int value) {
+            if (player >= players) players = player + 1;
+            lastMillis = time;
+            switch (type) {
+                case GameJournal.KEY_PRESSED:
+                    if (keys == keyCards.length) {
+                        keyCards = Arrays.copyOf(keyCards, keys * 2);
+                        keyTicks = Arrays.copyOf(keyTicks, keys * 2);
+                        keyOffsets = Arrays.copyOf(keyOffsets, keys * 2);
+                        keyPlayers = Arrays.copyOf(keyPlayers, keys * 2);
+                        keySlots = Arrays.copyOf(keySlots, keys * 2);
+                    }
+                    keyCards[keys] = cardEvents;
+                    keyTicks[keys] = value;
+                    keyOffsets[keys] = time - lastCardEvent;
+                    keyPlayers[keys] = player;
+                    keySlots[keys++] = slot;
+                    break;
+                case GameJournal.CARD_PLACED:
+                    if (placements == placed.length) placed = Arrays.copyOf(placed, placements * 2);
+                    placed[placements++] = ((long) value << 32) | slot;
+                    cardEvents++;
+                    lastCardEvent = time;
+                    break;
+                case GameJournal.CARD_REMOVED:
+                    cardEvents++;
+                    lastCardEvent = time;
+                    break;
+                case GameJournal.VERDICT:
+                    if (value == 0) break;
+                    if (sets == setPlayers.length) setPlayers = Arrays.copyOf(setPlayers, sets * 2);
+                    setPlayers[sets++] = player;
+                    break;
+                case GameJournal.GAME_OVER:
+                    gameOver = true;
+                    // fall through: the game ended at this point, like a terminated one
+                case GameJournal.TERMINATED:
+                    endCards = cardEvents;
+                    endTicks = value;
+                    endOffset = time - lastCardEvent;
+                    break;
+                default:
+            }
+        }
+
+        int[] scores(int players) {
+            int[] scores = new int[players];
+            for (int i = 0; i < sets; i++) scores[setPlayers[i]]++;
+            return scores;
+        }
+    }
+
+    /**
+     * Keeps the game clock times of the card placements and removals of the replay.
+     */
+    private static class CardEvents extends HeadlessUserInterface {
+
+        private final Clock clock;
+        private int count;
+        private long[] times = new long[256];
+
+        CardEvents(Clock clock) {
+            this.clock = clock;
+            times[0] = clock.currentTimeMillis();
+        }
+
+        @Override
+        public synchronized void placeCard(int card, int slot) {
+            happened();
+        }
+
+        @Override
+        public synchronized void removeCard(int slot) {
+            happened();
+        }
+
+        private void happened() {
+            if (++count == times.length) times = Arrays.copyOf(times, count * 2);
+            times[count] = clock.currentTimeMillis();
+            notifyAll();
+        }
+
+        /**
+         * Waits (without holding back the virtual time) until the given number of card events happened.
+         *
+         * @return - the time of the last of them (the start time for none), or -1 if the game ended first.
+         */
+        synchronized long await(int events, Thread game) throws InterruptedException {
+            while (count < events) {
+                if (!game.isAlive()) return -1;
+                wait(10);
+            }
+            return times[events];
+        }
+    }
+
+    private final Logger logger;
+    private final Config config;
+    private final Util util;
+    private final Recording recording;
+    private final String keepJournal;
+
+    Replay(Logger logger, Config config, Util util, Recording recording, String keepJournal) {
+        this.logger = logger;
+        this.config = config;
+        this.util = util;
+        this.recording = recording;
+        this.keepJournal = keepJournal;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Logger logger = Logger.getLogger("SetGameReplayLogger");
+        logger.setUseParentHandlers(false);
+
+        if (args.length == 0) {
+            System.out.println("usage: Replay <journal file> [config file] [Key=Value ...]");
+            return;
+        }
+        String configFile = args.length > 1 && !args[1].contains("=") ? args[1] : "config.properties";
+        Properties properties = Config.loadProperties(configFile, logger);
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            if (split > 0) properties.setProperty(arg.substring(0, split).trim(), arg.substring(split + 1).trim());
+        }
+        properties.setProperty("Hints", "False");
+        Config config = new Config(logger, properties);
+        int runs = Integer.parseInt(properties.getProperty("ReplayRuns", "1").trim());
+
+        Recording recording = Recording.read(Paths.get(args[0]));
+        if (recording.players > config.players) {
+            System.out.println("the journal has " + recording.players + " players, the configuration only "
+                    + config.players + ": replay with the configuration of the recorded game.");
+            System.exit(1);
+        }
+        System.out.printf(Locale.ROOT, "replaying %s: seed %d, %d key presses, %d sets, %.1f s of game time%n",
+                args[0], recording.seed, recording.keys, recording.sets,
+                (recording.lastMillis - recording.startMillis) / 1000.0);
+
+        Replay replay = new Replay(logger, config, new UtilImpl(config), recording,
+                properties.getProperty("ReplayJournal", "").trim());
+        boolean diverged = false;
+        for (int run = 1; run <= runs; run++) {
+            long start = System.nanoTime();
+            String divergence = replay.run();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf(Locale.ROOT, "run %d: %.3f s (%.0f key presses/s), %s%n", run, seconds,
+                    recording.keys / seconds, divergence == null ? "matches the recording" : divergence);
+            diverged |= divergence != null;
+        }
+        if (diverged) System.exit(1);
+    }
+
+    /**
+     * Replays the game once.
+     *
+     * @return - a description of the first difference from the recording, or null if the replay matches it.
+     */
+    String run() throws IOException, InterruptedException {
+        Path journalFile = Files.createTempFile("replay", ".journal");
+        try {
+            VirtualClock clock = new VirtualClock(recording.startMillis);
+            int[] scores;
+            try (GameJournal journal = GameJournal.open(journalFile, clock, recording.seed)) {
+                CardEvents cardEvents = new CardEvents(clock);
+                Env env = new Env(logger, config, cardEvents, util, new Metrics(), clock,
+                        task -> new Thread(task).start(), recording.seed, journal);
+                Player[] players = new Player[config.players];
+                Table table = new Table(env);
+                Dealer dealer = new Dealer(env, table, players);
+                for (int i = 0; i < players.length; i++) players[i] = new Player(env, dealer, table, i, true);
+
+                ThreadLogger dealerThread = new ThreadLogger(dealer, "dealer", logger);
+                clock.register();
+                dealerThread.startWithLog();
+                for (int key = 0; key < recording.keys; key++) {
+                    if (!reach(clock, dealer, dealerThread, cardEvents, recording.keyCards[key],
+                            recording.keyTicks[key], recording.keyOffsets[key])) break;
+                    players[recording.keyPlayers[key]].keyPressed(recording.keySlots[key]);
+                }
+                if (recording.endCards >= 0
+                        && reach(clock, dealer, dealerThread, cardEvents, recording.endCards, recording.endTicks,
+                        recording.endOffset)
+                        && recording.gameOver)
+                    // a game that ran out of sets should end by itself; if the replay drifted, compare tells
+                    clock.sleep(END_MARGIN_MILLIS);
+                // any other game (including a crashed one) ends after the last press
+                if (dealerThread.isAlive()) dealer.terminate();
+                clock.unregister();
+                dealerThread.joinWithLog();
+
+                scores = new int[players.length];
+                for (int i = 0; i < players.length; i++) scores[i] = players[i].score();
+            } finally {
+                clock.shutdown();
+            }
+            return compare(Recording.read(journalFile), scores);
+        } finally {
+            if (keepJournal.isEmpty()) Files.deleteIfExists(journalFile);
+            else Files.move(journalFile, Paths.get(keepJournal), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Lets the replayed game run until the dealer made the given number of card events and countdown ticks, and then
+     * for the given time after the last of these card events.
+     *
+     * @return - false if the game ended first.
+     */
+    private static boolean reach(Clock clock, Dealer dealer, Thread game, CardEvents cardEvents, int cards, int ticks,
+                                 long offset) throws InterruptedException {
+        long anchor;
+        while ((anchor = cardEvents.await(cards, game)) >= 0) {
+            int behind = ticks - dealer.ticks();
+            if (behind <= 0) {
+                long wait = anchor + offset - clock.currentTimeMillis();
+                if (wait > 0) clock.sleep(wait);
+                return true;
+            }
+            // ticks are at least TICK_MILLIS apart, so this does not sleep past the one before the target
+            clock.sleep(behind > 1 ? (behind - 1) * TICK_MILLIS : 1);
+        }
+        return false;
+    }
+
+    private String compare(Recording replayed, int[] scores) {
+        for (int i = 0; i < Math.min(recording.placements, replayed.placements); i++)
+            if (recording.placed[i] != replayed.placed[i])
+                return String.format("placement %d differs: card %d at slot %d instead of card %d at slot %d", i,
+                        replayed.placed[i] >>> 32, (int) replayed.placed[i], recording.placed[i] >>> 32,
+                        (int) recording.placed[i]);
+        if (recording.placements != replayed.placements)
+            return replayed.placements + " cards placed instead of " + recording.placements;
+        for (int i = 0; i < Math.min(recording.sets, replayed.sets); i++)
+            if (recording.setPlayers[i] != replayed.setPlayers[i])
+                return "set " + i + " went to player " + (replayed.setPlayers[i] + 1) + " instead of player "
+                        + (recording.setPlayers[i] + 1);
+        if (recording.gameOver != replayed.gameOver)
+            return recording.gameOver ? "the game did not run out of sets" : "the game ran out of sets";
+        int[] expected = recording.scores(scores.length);
+        if (!Arrays.equals(expected, scores))
+            return "scores " + Arrays.toString(scores) + " instead of " + Arrays.toString(expected);
+        return null;
+    }
+}
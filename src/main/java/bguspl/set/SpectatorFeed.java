@@ -0,0 +1,269 @@
+package bguspl.set;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A user interface decorator that publishes the game to any number of spectators. Every call is encoded once into a
+ * long (the same bytes as a NetworkServer frame: type, player, slot, unused, value) and written to a ring buffer, and
+ * the state it sets (cards, tokens, scores, freezes, countdown) is kept in arrays. Both are O(1) per call, so the game
+ * threads do the same work for a thousand spectators as for none, and never wait for them.
+ *
+ * Spectators read the ring at their own pace from their own threads. A spectator that falls a whole ring behind gets
+ * a snapshot built from the state arrays instead of the events it missed. The events set absolute values, so reading
+ * the state and then the events from the position the snapshot was taken at converges to the current state.
+ *
+ * The game calls the user interface for a slot under the slot's lock, for a player's score from the player's thread
+ * and for the freezes and the countdown from the dealer thread, so the calls setting the same state are never
+ * concurrent and the ring has them in order.
+ */
+public class SpectatorFeed implements UserInterface {
+
+    /**
+     * Receives the events of a subscription.
+     */
+    public interface Listener {
+
+        /**
+         * An event, with the types and fields of the NetworkServer frames.
+         */
+        void event(int type, int player, int slot, int value);
+
+        /**
+         * Events were missed: forget the state, a snapshot of the current one follows as events.
+         */
+        void resync();
+    }
+
+    private static final int CAPACITY = 1 << 12;
+    private static final long UNPUBLISHED = Long.MIN_VALUE;
+
+    private final UserInterface ui;
+    private final AtomicLong cursor = new AtomicLong();
+    private final AtomicLongArray events = new AtomicLongArray(CAPACITY);
+    private final AtomicLongArray sequences = new AtomicLongArray(CAPACITY);
+
+    /**
+     * The state set by the events: the card in each slot (-1 for none), the players with a token in each slot (a bit
+     * per player), the scores and freezes of the players, the countdown and the winners.
+     */
+    private final AtomicIntegerArray cards;
+    private final AtomicLongArray tokens;
+    private final AtomicIntegerArray scores;
+    private final AtomicLongArray freezes;
+    private volatile long countdown;
+    private volatile boolean warn;
+    private volatile long winners;
+    private volatile boolean over;
+
+    /**
+     * @param ui     - the user interface to forward the calls to.
+     * @param config - the game configuration.
+     */
+    public SpectatorFeed(UserInterface ui, Config config) {
+        this.ui = ui;
+        cards = new AtomicIntegerArray(config.tableSize);
+        for (int slot = 0; slot < config.tableSize; slot++) cards.set(slot, -1);
+        tokens = new AtomicLongArray(config.tableSize);
+        scores = new AtomicIntegerArray(config.players);
+        freezes = new AtomicLongArray(config.players);
+        for (int i = 0; i < CAPACITY; i++) sequences.set(i, i - CAPACITY);
+    }
+
+    /**
+     * @return - a new subscription, starting at the next event (after a snapshot of the current state).
+     */
+    public Subscription subscribe() {
+        return new Subscription();
+    }
+
+    /**
+     * A spectator's position in the feed. Not thread safe: poll it from one thread at a time.
+     */
+    public final class Subscription {
+
+        private long position;
+        private boolean synced;
+
+        private Subscription() {
+        }
+
+        /**
+         * Passes the events published since the last poll to the listener, or a snapshot if events were missed.
+         *
+         * @param max - the maximal number of events to pass (a snapshot counts as one).
+         * @return - the number of events passed.
+         */
+        public int poll(Listener listener, int max) {
+            int passed = 0;
+            if (!synced) {
+                resync(listener);
+                passed++;
+            }
+            while (passed < max) {
+                int index = (int) (position & (CAPACITY - 1));
+                long sequence = sequences.get(index);
+                if (sequence != position) {
+                    if (sequence == UNPUBLISHED && cursor.get() - position <= CAPACITY) break; // being written
+                    if (sequence != UNPUBLISHED && sequence < position) break; // nothing new
+                    resync(listener); // overwritten
+                    passed++;
+                    continue;
+                }
+                long event = events.get(index);
+                if (sequences.get(index) != position) continue; // overwritten while reading, the next round resyncs
+                listener.event(type(event), player(event), slot(event), value(event));
+                position++;
+                passed++;
+            }
+            return passed;
+        }
+
+        private void resync(Listener listener) {
+            position = cursor.get();
+            synced = true;
+            listener.resync();
+            for (int slot = 0; slot < cards.length(); slot++) {
+                int card = cards.get(slot);
+                if (card >= 0) listener.event(NetworkServer.PLACE_CARD, 0, slot, card);
+                long players = tokens.get(slot);
+                for (int player = 0; players != 0; player++, players >>>= 1)
+                    if ((players & 1) != 0) listener.event(NetworkServer.PLACE_TOKEN, player, slot, 0);
+            }
+            for (int player = 0; player < scores.length(); player++) {
+                listener.event(NetworkServer.SCORE, player, 0, scores.get(player));
+                if (freezes.get(player) > 0)
+                    listener.event(NetworkServer.FREEZE, player, 0, (int) freezes.get(player));
+            }
+            listener.event(NetworkServer.COUNTDOWN, warn ? 1 : 0, 0, (int) countdown);
+            if (over) {
+                long players = winners;
+                for (int player = 0; players != 0; player++, players >>>= 1)
+                    if ((players & 1) != 0) listener.event(NetworkServer.WINNER, player, 0, 0);
+                listener.event(NetworkServer.GAME_OVER, 0, 0, 0);
+            }
+        }
+    }
+
+    /**
+     * Encodes an event as the 8 bytes of a NetworkServer frame.
+     */
+    public static long encode(int type, int player, int slot, int value) {
+        return ((long) (type & 0xff) << 56) | ((long) (player & 0xff) << 48) | ((long) (slot & 0xff) << 40)
+                | (value & 0xffffffffL);
+    }
+
+    public static int type(long event) {
+        return (int) (event >>> 56);
+    }
+
+    public static int player(long event) {
+        return (int) (event >>> 48) & 0xff;
+    }
+
+    public static int slot(long event) {
+        return (int) (event >>> 40) & 0xff;
+    }
+
+    public static int value(long event) {
+        return (int) event;
+    }
+
+    private void publish(int type, int player, int slot, int value) {
+        long sequence = cursor.getAndIncrement();
+        int index = (int) (sequence & (CAPACITY - 1));
+        // invalidate first, so a reader of the previous event in this index notices it changed
+        sequences.set(index, UNPUBLISHED);
+        events.set(index, encode(type, player, slot, value));
+        sequences.set(index, sequence);
+    }
+
+    @Override
+    public void placeCard(int card, int slot) {
+        cards.set(slot, card);
+        publish(NetworkServer.PLACE_CARD, 0, slot, card);
+        ui.placeCard(card, slot);
+    }
+
+    @Override
+    public void removeCard(int slot) {
+        cards.set(slot, -1);
+        publish(NetworkServer.REMOVE_CARD, 0, slot, 0);
+        ui.removeCard(slot);
+    }
+
+    @Override
+    public void placeToken(int player, int slot) {
+        tokens.set(slot, tokens.get(slot) | (1L << player));
+        publish(NetworkServer.PLACE_TOKEN, player, slot, 0);
+        ui.placeToken(player, slot);
+    }
+
+    @Override
+    public void removeTokens() {
+        for (int slot = 0; slot < tokens.length(); slot++) tokens.set(slot, 0);
+        publish(NetworkServer.REMOVE_TOKENS, 0, NetworkServer.ALL_SLOTS, 0);
+        ui.removeTokens();
+    }
+
+    @Override
+    public void removeTokens(int slot) {
+        tokens.set(slot, 0);
+        publish(NetworkServer.REMOVE_TOKENS, 0, slot, 0);
+        ui.removeTokens(slot);
+    }
+
+    @Override
+    public void removeToken(int player, int slot) {
+        tokens.set(slot, tokens.get(slot) & ~(1L << player));
+        publish(NetworkServer.REMOVE_TOKEN, player, slot, 0);
+        ui.removeToken(player, slot);
+    }
+
+    @Override
+    public void setCountdown(long millies, boolean warn) {
+        countdown = millies;
+        this.warn = warn;
+        publish(NetworkServer.COUNTDOWN, warn ? 1 : 0, 0, (int) millies);
+        ui.setCountdown(millies, warn);
+    }
+
+    @Override
+    public void setElapsed(long millies) {
+        countdown = millies;
+        warn = false;
+        publish(NetworkServer.COUNTDOWN, 0, 0, (int) millies);
+        ui.setElapsed(millies);
+    }
+
+    @Override
+    public void setFreeze(int player, long millies) {
+        freezes.set(player, millies);
+        publish(NetworkServer.FREEZE, player, 0, (int) millies);
+        ui.setFreeze(player, millies);
+    }
+
+    @Override
+    public void setScore(int player, int score) {
+        scores.set(player, score);
+        publish(NetworkServer.SCORE, player, 0, score);
+        ui.setScore(player, score);
+    }
+
+    @Override
+    public void announceWinner(int[] players) {
+        long mask = 0;
+        for (int player : players) mask |= 1L << player;
+        winners = mask;
+        over = true;
+        for (int player : players) publish(NetworkServer.WINNER, player, 0, 0);
+        publish(NetworkServer.GAME_OVER, 0, 0, 0);
+        ui.announceWinner(players);
+    }
+
+    @Override
+    public void dispose() {
+        ui.dispose();
+    }
+}
@@ -0,0 +1,150 @@
+package bguspl.set;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Logger;
+
+/**
+ * Plays large batches of computer-only games in parallel, each with its own seed, and streams the results into a
+ * summary per configuration: winner distribution, average game length, sets per minute and claim rejection rate.
+ * The games are hosted by GameServer instances, so they run the regular Dealer, Player and Table code; only the
+ * summary counters outlive a finished game. All games run on one VirtualClock, so the delays, freezes and turn timeouts
+ * take no real time, and the game lengths and sets per minute are in game time.
+ *
+ * Usage: mvn exec:java -Dexec.mainClass=bguspl.set.Tournament -Dexec.args="[Key=Value ...]"
+ * Any config.properties key can be overridden on the command line, in addition to the tournament settings:
+ * TournamentConfigs (comma separated config files, one variant each, default config.properties),
+ * TournamentGames (per variant, default 1000), TournamentParallelism (games at a time, default the number of cores),
+ * TournamentSeed (the seed of the first game, default 1) and TournamentReportEvery (default 100 games). The games are
+ * added to the LeaderboardFile leaderboard of their variant, if set.
+ */
+public class Tournament {
+
+    /**
+     * The results of the games of one configuration.
+     */
+    static class Summary {
+
+        final String name;
+        final GameServer server;
+        private final long[] wins;
+        private long games;
+        private long ties;
+        private long lengthMillis;
+
+        Summary(String name, GameServer server, int players) {
+            this.name = name;
+            this.server = server;
+            this.wins = new long[players];
+        }
+
+        synchronized void record(GameServer.Game game) {
+            games++;
+            lengthMillis += game.lengthMillis();
+            int[] scores = game.scores();
+            int winner = -1;
+            boolean tie = false;
+            for (int player = 0; player < scores.length; player++) {
+                if (winner == -1 || scores[player] > scores[winner]) {
+                    winner = player;
+                    tie = false;
+                } else if (scores[player] == scores[winner]) {
+                    tie = true;
+                }
+            }
+            if (tie || winner == -1) ties++;
+            else wins[winner]++;
+        }
+
+        synchronized String report() {
+            Metrics metrics = server.metrics();
+            long points = metrics.counter(Metrics.POINTS).get();
+            long penalties = metrics.counter(Metrics.PENALTIES).get();
+            double minutes = lengthMillis / 60000.0;
+            StringBuilder sb = new StringBuilder(String.format(Locale.ROOT,
+                    "%s: %d games, avg length %.1f s, %.1f sets/min, rejection rate %.1f%%%n  wins:", name, games,
+                    games == 0 ? 0 : lengthMillis / 1000.0 / games, minutes == 0 ? 0 : points / minutes,
+                    points + penalties == 0 ? 0 : 100.0 * penalties / (points + penalties)));
+            for (int player = 0; player < wins.length; player++)
+                sb.append(String.format(Locale.ROOT, " player %d %.1f%%,", player + 1, percent(wins[player])));
+            sb.append(String.format(Locale.ROOT, " ties %.1f%%%n", percent(ties)));
+            return sb.toString();
+        }
+
+        private double percent(long count) {
+            return games == 0 ? 0 : 100.0 * count / games;
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Logger logger = Logger.getLogger("SetGameTournamentLogger");
+        logger.setUseParentHandlers(false);
+
+        Properties overrides = new Properties();
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            if (split > 0) overrides.setProperty(arg.substring(0, split).trim(), arg.substring(split + 1).trim());
+        }
+        String[] configFiles = overrides.getProperty("TournamentConfigs", "config.properties").split(",");
+        int gamesPerVariant = Integer.parseInt(overrides.getProperty("TournamentGames", "1000"));
+        int parallelism = Integer.parseInt(overrides.getProperty("TournamentParallelism",
+                Integer.toString(Runtime.getRuntime().availableProcessors())));
+        long seed = Long.parseLong(overrides.getProperty("TournamentSeed", "1"));
+        int reportEvery = Integer.parseInt(overrides.getProperty("TournamentReportEvery", "100"));
+
+        // one server per variant, sharing the card utilities between variants with the same deck
+        VirtualClock clock = new VirtualClock(System.currentTimeMillis());
+        Map<String, Util> utils = new HashMap<>();
+        List<Summary> summaries = new ArrayList<>();
+        List<Leaderboard> leaderboards = new ArrayList<>();
+        for (String configFile : configFiles) {
+            Properties properties = Config.loadProperties(configFile.trim(), logger);
+            properties.putAll(overrides);
+            properties.setProperty("HumanPlayers", "0");
+            properties.setProperty("Hints", "False");
+            Config config = new Config(logger, properties);
+            if (config.players == 0) {
+                System.out.println(configFile.trim() + ": no players, set ComputerPlayers to the number of bots.");
+                return;
+            }
+            Util util = utils.computeIfAbsent(config.featureCount + ":" + config.featureSize,
+                    deck -> new UtilImpl(config));
+            GameServer server = new GameServer(logger, config, util, clock, parallelism, seed);
+            Leaderboard leaderboard = Leaderboard.open(config, logger);
+            if (leaderboard != null) leaderboards.add(leaderboard);
+            server.recordTo(leaderboard);
+            summaries.add(new Summary(configFile.trim(), server, config.players));
+        }
+
+        // round robin over the variants, with at most parallelism games running overall
+        Semaphore running = new Semaphore(parallelism);
+        Object progress = new Object();
+        int[] finished = {0};
+        int total = gamesPerVariant * summaries.size();
+        for (int i = 0; i < gamesPerVariant; i++) {
+            for (Summary summary : summaries) {
+                running.acquire();
+                summary.server.start().completion().thenAccept(game -> {
+                    summary.record(game);
+                    running.release();
+                    synchronized (progress) {
+                        if (++finished[0] % reportEvery == 0 || finished[0] == total) {
+                            System.out.println("after " + finished[0] + "/" + total + " games:");
+                            summaries.forEach(s -> System.out.print(s.report()));
+                        }
+                    }
+                });
+            }
+        }
+        running.acquire(parallelism);
+        for (Summary summary : summaries) summary.server.shutdown();
+        clock.shutdown();
+        for (Leaderboard leaderboard : leaderboards) leaderboard.close();
+    }
+}
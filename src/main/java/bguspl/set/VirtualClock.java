@@ -0,0 +1,135 @@
+package bguspl.set;
+
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A simulated clock for running games faster than real time. Time only moves when every registered thread is idle
+ * (sleeping on this clock, or waiting/blocked on something else), and then jumps straight to the earliest sleep
+ * deadline. A 60 second turn therefore takes only as long as the actual work done during it.
+ *
+ * Input sources such as the keyboard or the computer players' key generators need not register: they are not
+ * waiting for time to pass. A registered thread that never blocks stops the clock.
+ */
+public class VirtualClock implements Clock {
+
+    /**
+     * The real time to wait between two identical observations of an idle game before advancing the time, so threads
+     * that were just handed work (e.g. by a notify) get a chance to be seen running.
+     */
+    private static final long SETTLE_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+
+    private final Map<Thread, Boolean> participants = new ConcurrentHashMap<>();
+
+    /**
+     * The deadlines of the threads currently sleeping (guarded by this).
+     */
+    private final PriorityQueue<Long> deadlines = new PriorityQueue<>();
+
+    /**
+     * The number of sleepers whose deadline was reached but that did not return from sleep yet (guarded by this).
+     */
+    private int waking;
+
+    /**
+     * Incremented whenever a thread starts or stops sleeping (guarded by this).
+     */
+    private long activity;
+
+    private volatile long now;
+
+    private final Thread advancer;
+    private volatile boolean shutdown;
+
+    /**
+     * @param startMillis - the initial time.
+     */
+    public VirtualClock(long startMillis) {
+        now = startMillis;
+        advancer = new Thread(this::advanceWhenIdle, "virtual-clock");
+        advancer.setDaemon(true);
+        advancer.start();
+    }
+
+    /**
+     * Stops the advancer thread, once the games on this clock are over (the time no longer moves after that).
+     */
+    public void shutdown() throws InterruptedException {
+        shutdown = true;
+        LockSupport.unpark(advancer);
+        advancer.join();
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return now;
+    }
+
+    @Override
+    public void sleep(long millis) throws InterruptedException {
+        if (millis <= 0) {
+            if (Thread.interrupted()) throw new InterruptedException();
+            return;
+        }
+        synchronized (this) {
+            long deadline = now + millis;
+            deadlines.add(deadline);
+            activity++;
+            try {
+                while (now < deadline) wait();
+            } finally {
+                deadlines.remove(deadline);
+                if (deadline <= now) waking--;
+                activity++;
+            }
+        }
+    }
+
+    @Override
+    public void register() {
+        participants.put(Thread.currentThread(), Boolean.TRUE);
+    }
+
+    @Override
+    public void unregister() {
+        participants.remove(Thread.currentThread());
+    }
+
+    /**
+     * The main loop of the advancer thread.
+     */
+    private void advanceWhenIdle() {
+        while (!shutdown) {
+            long seen = idleActivity();
+            LockSupport.parkNanos(SETTLE_NANOS);
+            if (seen >= 0) synchronized (this) {
+                if (activity == seen && idleActivity() == seen) advance();
+            }
+        }
+    }
+
+    /**
+     * @return - the activity counter if the game is idle and someone is sleeping, -1 otherwise.
+     */
+    private synchronized long idleActivity() {
+        if (deadlines.isEmpty() || waking > 0) return -1;
+        for (Thread thread : participants.keySet()) {
+            Thread.State state = thread.getState();
+            if (state == Thread.State.TERMINATED) participants.remove(thread);
+            else if (state == Thread.State.RUNNABLE || thread.isInterrupted()) return -1;
+        }
+        return activity;
+    }
+
+    /**
+     * Moves the time to the earliest deadline and wakes up the sleepers that reached it.
+     */
+    private void advance() {
+        now = Math.max(now, deadlines.peek());
+        for (long deadline : deadlines) if (deadline <= now) waking++;
+        notifyAll();
+    }
+}
@@ -0,0 +1,23 @@
+package bguspl.set.ex;
+
+/**
+ * The tokens of a player at the time it claimed a set: their slots, and the version of each slot when the token was
+ * placed on it (see Table.claim and Table.claimedCards).
+ */
+public final class Claim {
+
+  /**
+   * The player who claimed.
+   */
+  public final int player;
+
+  final int[] slots;
+
+  final long[] versions;
+
+  Claim(int player, int[] slots, long[] versions) {
+    this.player = player;
+    this.slots = slots;
+    this.versions = versions;
+  }
+}
@@ -1,14 +1,21 @@
 package bguspl.set.ex;
 
 import bguspl.set.Env;
+import bguspl.set.GameCheckpoint;
+import bguspl.set.GameEvents;
+import bguspl.set.LockProfiler;
+import bguspl.set.Metrics;
 import java.time.Year;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -33,6 +40,16 @@ public class Dealer implements Runnable {
    */
   private final List<Integer> deck;
 
+  /**
+   * The size of the deck, for readers outside the dealer thread.
+   */
+  private volatile int deckRemaining;
+
+  /**
+   * Prints the sets on the table from its own thread (null unless config.hints).
+   */
+  private final HintEngine hints;
+
   /**
    * True iff game should be terminated.
    */
@@ -43,6 +60,13 @@ public class Dealer implements Runnable {
    */
   private long timerValue;
 
+  /*
+   * the countdown value (in display units) and warn state last sent to the ui
+   */
+  private long displayedCountdown;
+
+  private boolean displayedWarn;
+
   private boolean isThereAnySets;
 
   /*
@@ -50,7 +74,13 @@ public class Dealer implements Runnable {
    */
   public Semaphore setSempahore;
 
-  public Thread dealerThread;
+  /**
+   * The lock profiling of the semaphore, by the players holding it (see LockProfiler).
+   */
+  final LockProfiler locks;
+  final LockProfiler.Site semaphoreSite;
+
+  public volatile Thread dealerThread;
 
   /*
     Hash map to find all the threds that locks the semaphore
@@ -63,9 +93,43 @@ public class Dealer implements Runnable {
   private boolean reset;
 
   /**
-   * The time when the dealer needs to reshuffle the deck due to turn timeout.
+   * The time when the dealer needs to reshuffle the deck due to turn timeout (updated every countdown tick).
+   */
+  private volatile long reshuffleTime = Long.MAX_VALUE;
+
+  /**
+   * The number of countdown ticks since the game started (the turn timeout is counted in ticks).
    */
-  private long reshuffleTime = Long.MAX_VALUE;
+  private volatile int ticks;
+
+  /*
+   * metrics for set verification, table write lock and slot fence hold times and reshuffles
+   */
+  private final Metrics.Histogram claimVerify;
+  private final Metrics.Histogram writeLockHold;
+  private final Metrics.Histogram fenceHold;
+  private final Metrics.Counter reshuffles;
+  private final Metrics.Counter staleClaims;
+  private final Metrics.Histogram checkpointLockHold;
+
+  /*
+   * the checkpoint requested from the dealer thread (if any), whether the dealer stopped taking them, and the
+   * checkpoint to resume the game from (null for a new game)
+   */
+  private final AtomicReference<CompletableFuture<GameCheckpoint>> checkpointRequest = new AtomicReference<>();
+  private volatile boolean finished;
+  private GameCheckpoint resumeFrom;
+
+  /*
+   * whether the game ended by running out of sets (not by terminate), and the winners, once announced
+   */
+  private volatile boolean completed;
+  private volatile int[] winners;
+
+  /*
+   * random source for the deck shuffles (seeded by the environment)
+   */
+  private final Random random;
 
   public Dealer(Env env, Table table, Player[] players) {
     this.env = env;
@@ -77,13 +141,24 @@ public class Dealer implements Runnable {
         .range(0, env.config.deckSize)
         .boxed()
         .collect(Collectors.toList());
+    deckRemaining = deck.size();
     terminate = false;
     timerValue = env.config.turnTimeoutMillis;
     setSempahore = new Semaphore(1, true);
+    locks = new LockProfiler(env.config.lockProfiling, env.metrics);
+    semaphoreSite = locks.site("dealer.semaphore");
     // reshuffleTime = env.config.turnTimeoutMillis;
     playerWhoClaimedSet = -1;
     cardsSet = new int[env.config.featureSize];
     isThereAnySets = true;
+    claimVerify = env.metrics.histogram(Metrics.CLAIM_VERIFY);
+    writeLockHold = env.metrics.histogram(Metrics.TABLE_WRITE_LOCK_HOLD);
+    fenceHold = env.metrics.histogram(Metrics.TABLE_FENCE_HOLD);
+    reshuffles = env.metrics.counter(Metrics.RESHUFFLES);
+    staleClaims = env.metrics.counter(Metrics.CLAIM_STALE);
+    checkpointLockHold = env.metrics.histogram(Metrics.CHECKPOINT_LOCK_HOLD);
+    random = new Random(env.seed);
+    hints = env.config.hints ? new HintEngine(env, table) : null;
   }
 
   /**
@@ -92,30 +167,40 @@ public class Dealer implements Runnable {
   @Override
   public void run() {
     dealerThread = Thread.currentThread();
+    env.clock.register();
     env.logger.info(
       "thread " + Thread.currentThread().getName() + " starting."
     );
-    shuffleDeck();
-    placeCardsOnTable();
+    if (resumeFrom == null) {
+      shuffleDeck();
+      placeCardsOnTable();
+    } else restore(resumeFrom);
 
     for (Player player : players) {
-      Thread playerThread = new Thread(() -> player.run());
-      playerThread.start();
+      env.executor.execute(player);
     }
-    env.ui.setCountdown(timerValue, false);
+    if (hints != null) env.executor.execute(hints);
+    publishCountdown(false);
     while (!shouldFinish()) {
       timerLoop(); // Runs until timer reaches 0.
       updateTimerDisplay(true);
       removeAllCardsFromTable();
       shuffleDeck();
+      reshuffles.increment();
     }
+    completed = !terminate;
+    if (completed) env.journal.gameOver(ticks);
     for (Player player : players) {
       player.terminate();
-      player.getPlayerThread().interrupt();
+      interrupt(player);
     }
+    if (hints != null) hints.terminate();
     removeAllCardsFromTable();
     announceWinners();
+    finished = true;
+    cancelCheckpoint();
 
+    env.clock.unregister();
     env.logger.info(
       "thread " + Thread.currentThread().getName() + " terminated."
     );
@@ -125,17 +210,166 @@ public class Dealer implements Runnable {
    * The inner loop of the dealer thread that runs as long as the countdown did not time out.
    */
   private void timerLoop() {
-    reshuffleTime = System.currentTimeMillis() + env.config.turnTimeoutMillis;
+    reshuffleTime = env.clock.currentTimeMillis() + env.config.turnTimeoutMillis;
     while (!terminate && timerValue >= 0) { // Normally runs every second
       sleepUntilWokenOrTimeout();
       updateTimerDisplay(reset);
+      long now = env.clock.currentTimeMillis();
+      reshuffleTime = now + Math.max(0, timerValue);
+      for (Player player : players) player.updateFreezeDisplay(now);
+      CompletableFuture<GameCheckpoint> request = checkpointRequest.getAndSet(
+        null
+      );
+      if (request != null) request.complete(capture());
+    }
+  }
+
+  /**
+   * Requests a checkpoint of the game. The dealer thread takes it between two countdown ticks, so it does not race
+   * with the deck shuffles and the card placements, and holds the table write lock only while copying the state.
+   *
+   * @return - the checkpoint, once taken (cancelled if the game ended first).
+   */
+  public CompletableFuture<GameCheckpoint> checkpoint() {
+    CompletableFuture<GameCheckpoint> request = checkpointRequest.updateAndGet(
+      pending -> pending != null ? pending : new CompletableFuture<>()
+    );
+    if (finished) cancelCheckpoint();
+    return request;
+  }
+
+  private void cancelCheckpoint() {
+    CompletableFuture<GameCheckpoint> request = checkpointRequest.getAndSet(
+      null
+    );
+    if (request != null) request.cancel(false);
+  }
+
+  /**
+   * Copies the game state (the tokens can only change while the write lock is not held).
+   */
+  private GameCheckpoint capture() {
+    int[] deckCards = new int[deck.size()];
+    for (int i = 0; i < deckCards.length; i++) deckCards[i] = deck.get(i);
+    int[] slotToCard = new int[table.slotToCard.length];
+    int[][] playerTokens = new int[players.length][];
+    int[] scores = new int[players.length];
+    long profiledAt = table.lockTable();
+    long lockedAt = System.nanoTime();
+    for (int slot = 0; slot < slotToCard.length; slot++) {
+      Integer card = table.slotToCard[slot];
+      slotToCard[slot] = card == null ? -1 : card;
+    }
+    for (int i = 0; i < players.length; i++) {
+      LinkedList<Integer> tokens = table.playersTokens[i];
+      playerTokens[i] = new int[tokens.size()];
+      int j = 0;
+      for (int slot : tokens) playerTokens[i][j++] = slot;
+      scores[i] = players[i].score();
+    }
+    checkpointLockHold.recordSince(lockedAt);
+    table.unlockTable(profiledAt);
+    return new GameCheckpoint(
+      env.seed,
+      env.clock.currentTimeMillis(),
+      timerValue,
+      ticks,
+      deckCards,
+      slotToCard,
+      playerTokens,
+      scores
+    );
+  }
+
+  /**
+   * Makes the game continue from a checkpoint instead of dealing a new one. Call before the dealer thread starts.
+   *
+   * @param checkpoint - a checkpoint of a game with the same configuration.
+   * @throws IllegalArgumentException - if the checkpoint does not fit the configuration.
+   */
+  public void resume(GameCheckpoint checkpoint) {
+    String mismatch = checkpointMismatch(checkpoint);
+    if (mismatch != null) throw new IllegalArgumentException(
+      "the checkpoint is of a game with another configuration: " + mismatch
+    );
+    resumeFrom = checkpoint;
+  }
+
+  /**
+   * Checks everything restore() trusts: the sizes, that every card is a card of the deck and is either in the deck or
+   * on the table (once), and that every token is on a slot of the table holding a card, at most once per player.
+   *
+   * @return - what does not fit the configuration, or null if the checkpoint fits it.
+   */
+  private String checkpointMismatch(GameCheckpoint checkpoint) {
+    if (checkpoint.slotToCard.length != table.slotToCard.length) return (
+      checkpoint.slotToCard.length + " slots"
+    );
+    if (
+      checkpoint.scores.length != players.length ||
+      checkpoint.playerTokens.length != players.length
+    ) return checkpoint.scores.length + " players";
+    boolean[] seen = new boolean[env.config.deckSize];
+    for (int card : checkpoint.deck) {
+      if (card < 0 || card >= seen.length) return "card " + card;
+      if (seen[card]) return "card " + card + " twice";
+      seen[card] = true;
+    }
+    for (int card : checkpoint.slotToCard) {
+      if (card == -1) continue;
+      if (card < 0 || card >= seen.length) return "card " + card;
+      if (seen[card]) return "card " + card + " twice";
+      seen[card] = true;
     }
+    for (int player = 0; player < players.length; player++) {
+      if (checkpoint.scores[player] < 0) return (
+        "score " + checkpoint.scores[player]
+      );
+      boolean[] owned = new boolean[checkpoint.slotToCard.length];
+      for (int slot : checkpoint.playerTokens[player]) {
+        if (
+          slot < 0 || slot >= owned.length || checkpoint.slotToCard[slot] < 0
+        ) return "a token of player " + player + " on slot " + slot;
+        if (owned[slot]) return (
+          "two tokens of player " + player + " on slot " + slot
+        );
+        owned[slot] = true;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Restores the deck, the table, the scores and the timer of a checkpoint, without the table delays. Tokens of a full
+   * set are not restored, since their claim was lost with the game.
+   */
+  private void restore(GameCheckpoint checkpoint) {
+    deck.clear();
+    for (int card : checkpoint.deck) deck.add(card);
+    deckRemaining = deck.size();
+    timerValue = checkpoint.timerValue;
+    ticks = checkpoint.ticks;
+    int[][] tokens = new int[players.length][];
+    for (int i = 0; i < players.length; i++) {
+      int[] playerTokens = checkpoint.playerTokens[i];
+      tokens[i] =
+        playerTokens.length < env.config.featureSize
+          ? playerTokens
+          : new int[0];
+      players[i].restore(checkpoint.scores[i]);
+    }
+    table.restore(checkpoint.slotToCard, tokens);
+    if (hints != null) hints.tableChanged();
+    env.logger.info(
+      "resumed the game from a checkpoint taken at " + checkpoint.savedAtMillis
+    );
   }
 
   /**
    * Called when the game should be terminated.
    */
   public void terminate() {
+    if (!terminate) env.journal.terminated(ticks);
     terminate = true;
   }
 
@@ -149,22 +383,20 @@ public class Dealer implements Runnable {
   }
 
   /**
-   * Checks cards should be removed from the table and removes them.
+   * Checks cards should be removed from the table and removes them. Only the slots of the set are fenced while their
+   * cards are replaced, so the other players keep using the rest of the table.
    */
   private void removeCardsFromTable() {
     if (playerWhoClaimedSet != -1) {
-      table.lock.writeLock().lock();
-      for (int card : cardsSet) {
-        LinkedList<Integer> playersWhoPlacedTokens = table.getAllPlayersThatPlacedTokenOnSlot(
-          table.cardToSlot[card]
-        );
-        for (int playerId : playersWhoPlacedTokens) {
-          players[playerId].tokensCounter--;
-        }
-        table.removeCard(table.cardToSlot[card]);
-      }
+      int[] slots = new int[cardsSet.length];
+      for (int i = 0; i < cardsSet.length; i++) slots[i] =
+        table.cardToSlot[cardsSet[i]];
+      table.fence(slots);
+      long fencedAt = System.nanoTime();
+      for (int slot : slots) table.removeCard(slot);
       placeCardsOnTable();
-      table.lock.writeLock().unlock();
+      fenceHold.recordSince(fencedAt);
+      table.unfence(slots);
     }
   }
 
@@ -179,41 +411,54 @@ public class Dealer implements Runnable {
         table.placeCard(cardToPlace, i);
       }
     }
+    deckRemaining = deck.size();
+    if (hints != null) hints.tableChanged();
   }
 
   /**
    * Sleep for a fixed amount of time or until the thread is awakened for some purpose.
    */
   private void sleepUntilWokenOrTimeout() {
-    long start = System.currentTimeMillis();
+    long start = env.clock.currentTimeMillis();
     int refreshRate = 10;
     long remainingTime = refreshRate;
     if (playerWhoClaimedSet != -1) {
-      cardsSet = table.getSetCards(playerWhoClaimedSet);
+      long verifyStart = System.nanoTime();
+      GameEvents.VerdictEvent verdict = new GameEvents.VerdictEvent();
+      verdict.begin();
+      verdict.player = playerWhoClaimedSet;
+      verdict.slots = GameEvents.packSlots(players[playerWhoClaimedSet].claim().slots);
       //if there is a set
-      if (env.util.testSet(cardsSet)) {
+      if (validClaim(playerWhoClaimedSet)) {
+        verdict.accepted = true;
         //update the field in the player whos waiting for set
         players[playerWhoClaimedSet].foundSet = true;
         //removing the cards and will update in the function the token counters for players
         removeCardsFromTable();
         // interrupt the player to update his state
-        players[playerWhoClaimedSet].getPlayerThread().interrupt();
+        interrupt(players[playerWhoClaimedSet]);
         updatePlayerWhoClaimedSet(-1);
         // update the time of reshuffeling
         reshuffleTime =
-          System.currentTimeMillis() + env.config.turnTimeoutMillis;
+          env.clock.currentTimeMillis() + env.config.turnTimeoutMillis;
         reset = true;
+        claimVerify.recordSince(verifyStart);
+        env.journal.verdict(verdict.player, verdict.accepted);
+        verdict.commit();
         return;
       }
-      players[playerWhoClaimedSet].getPlayerThread().interrupt();
+      interrupt(players[playerWhoClaimedSet]);
       updatePlayerWhoClaimedSet(-1);
+      claimVerify.recordSince(verifyStart);
+      env.journal.verdict(verdict.player, verdict.accepted);
+      verdict.commit();
       // }
       //sync on the player who claim the set
     }
     while (remainingTime > 0) {
       try {
         // dealer thread trying to sleep for 10 miliseconds
-        Thread.sleep(remainingTime);
+        env.clock.sleep(remainingTime);
         remainingTime = 0;
       } catch (InterruptedException e) {
         //the case some player tries to claim a set or the game is terminated
@@ -222,9 +467,14 @@ public class Dealer implements Runnable {
         if (playerWhoClaimedSet != -1) {
           // synchronized (players[playerWhoClaimedSet]) {
           //get the cards from the table, each player has a list of tokens on the table data structure
-          cardsSet = table.getSetCards(playerWhoClaimedSet);
+          long verifyStart = System.nanoTime();
+          GameEvents.VerdictEvent verdict = new GameEvents.VerdictEvent();
+          verdict.begin();
+          verdict.player = playerWhoClaimedSet;
+          verdict.slots = GameEvents.packSlots(players[playerWhoClaimedSet].claim().slots);
           //if there is a set
-          if (env.util.testSet(cardsSet)) {
+          if (validClaim(playerWhoClaimedSet)) {
+            verdict.accepted = true;
             //update the field in the player whos waiting for set
             players[playerWhoClaimedSet].foundSet = true;
             //removing the cards and will update in the function the token counters for players
@@ -232,22 +482,88 @@ public class Dealer implements Runnable {
             // interrupt the player to update his state
             int p = playerWhoClaimedSet;
             updatePlayerWhoClaimedSet(-1);
-            players[p].getPlayerThread().interrupt();
+            interrupt(players[p]);
 
             // update the time
             reset = true;
+            claimVerify.recordSince(verifyStart);
+            env.journal.verdict(verdict.player, verdict.accepted);
+            verdict.commit();
             return;
           }
-          players[playerWhoClaimedSet].getPlayerThread().interrupt();
+          interrupt(players[playerWhoClaimedSet]);
           updatePlayerWhoClaimedSet(-1);
+          claimVerify.recordSince(verifyStart);
+          env.journal.verdict(verdict.player, verdict.accepted);
+          verdict.commit();
           // }
           //sync on the player who claimthe set
 
         }
-        remainingTime = start + refreshRate - System.currentTimeMillis();
+        remainingTime = start + refreshRate - env.clock.currentTimeMillis();
       }
     }
     timerValue -= refreshRate;
+    ticks++;
+  }
+
+  /**
+   * Checks a claim: first that none of its slots changed since the player's tokens were placed on them (a version
+   * comparison, see Table.claimedCards), then that its cards are a set. A stale claim is rejected without a penalty, since
+   * the player was beaten to a card rather than wrong.
+   *
+   * @return - true iff the claim is a set.
+   */
+  private boolean validClaim(int player) {
+    int[] cards = table.claimedCards(players[player].claim());
+    if (cards == null) {
+      players[player].staleClaim = true;
+      staleClaims.increment();
+      return false;
+    }
+    cardsSet = cards;
+    return env.util.testSet(cards);
+  }
+
+  /**
+   * Interrupts a player's thread, if it started: the players run on env.executor, which may not have started them
+   * yet (e.g. a game terminated right after it was launched).
+   */
+  private void interrupt(Player player) {
+    Thread thread = player.getPlayerThread();
+    if (thread != null) thread.interrupt();
+  }
+
+  /**
+   * @return - the number of cards left in the deck.
+   */
+  public int deckRemaining() {
+    return deckRemaining;
+  }
+
+  /**
+   * @return - the game clock time of the next reshuffle (Long.MAX_VALUE before the countdown starts).
+   */
+  public long reshuffleTime() {
+    return reshuffleTime;
+  }
+
+  /**
+   * @return - the claims not ruled on yet: the one being checked (its player holds the semaphore) and the players
+   * waiting for the semaphore.
+   */
+  public int pendingClaims() {
+    return (
+      setSempahore.getQueueLength() +
+      (setSempahore.availablePermits() == 0 ? 1 : 0)
+    );
+  }
+
+  /**
+   * @return - the number of countdown ticks since the game started.
+   */
+  public int ticks() {
+    return ticks;
   }
 
   /**
@@ -256,34 +572,56 @@ public class Dealer implements Runnable {
   private void updateTimerDisplay(boolean reset) {
     if (reset) {
       this.reset = false;
-      env.ui.setCountdown(env.config.turnTimeoutMillis, false);
       timerValue = env.config.turnTimeoutMillis;
+      publishCountdown(false);
     } else {
-      env.ui.setCountdown( // also changes timer color if warn is true
-        timerValue,
-        timerValue <= (env.config.turnTimeoutWarningMillis)
-      );
+      boolean warn = timerValue <= (env.config.turnTimeoutWarningMillis);
+      // the ui only shows whole seconds (or a few digits when warning), so skip ticks that would not change it
+      if (
+        warn != displayedWarn || countdownUnits(warn) != displayedCountdown
+      ) publishCountdown(warn);
     }
   }
 
+  /**
+   * Sends the current timer value to the ui and remembers what was displayed.
+   */
+  private void publishCountdown(boolean warn) {
+    displayedWarn = warn;
+    displayedCountdown = countdownUnits(warn);
+    env.ui.setCountdown(timerValue, warn); // also changes timer color if warn is true
+  }
+
+  /**
+   * Converts the timer value to the units the display changes in: seconds normally, and
+   * config.countdownRefreshMillis while warning.
+   */
+  private long countdownUnits(boolean warn) {
+    long unit = warn ? Math.max(1, env.config.countdownRefreshMillis) : 1000;
+    return Math.floorDiv(timerValue, unit);
+  }
+
   /**
    * Returns all the cards from the table to the deck.
    */
   private void removeAllCardsFromTable() {
-    table.lock.writeLock().lock();
+    GameEvents.ReshuffleEvent event = new GameEvents.ReshuffleEvent();
+    event.begin();
+    long profiledAt = table.lockTable();
+    long lockedAt = System.nanoTime();
 
     for (Integer card : table.slotToCard) {
       if (card != null) {
         deck.add(card);
         table.removeCard(table.cardToSlot[card]);
+        event.cards++;
       }
     }
-    for (Player player : players) {
-      player.tokensCounter = 0;
-    }
+    deckRemaining = deck.size();
+    env.journal.reshuffle(event.cards);
     if (playerWhoClaimedSet != -1) {
       players[playerWhoClaimedSet].foundSet = false;
-      players[playerWhoClaimedSet].getPlayerThread().interrupt();
+      interrupt(players[playerWhoClaimedSet]);
       updatePlayerWhoClaimedSet(-1);
     }
     isThereAnySets = env.util.findSets(deck, 1).size() > 0;
@@ -291,7 +629,9 @@ public class Dealer implements Runnable {
       placeCardsOnTable();
     }
 
-    table.lock.writeLock().unlock();
+    writeLockHold.recordSince(lockedAt);
+    table.unlockTable(profiledAt);
+    event.commit();
   }
 
   /**
@@ -319,11 +659,26 @@ public class Dealer implements Runnable {
     }
 
     //display the winner
+    this.winners = winnerPlayers;
     env.ui.announceWinner(winnerPlayers);
   }
 
+  /**
+   * @return - the ids of the winners, or null while the game is running.
+   */
+  public int[] winners() {
+    return winners;
+  }
+
+  /**
+   * @return - true iff the game ended by running out of sets, rather than by terminate.
+   */
+  public boolean completed() {
+    return completed;
+  }
+
   private void shuffleDeck() {
-    if (!shouldFinish()) Collections.shuffle(deck);
+    if (!shouldFinish()) Collections.shuffle(deck, random);
   }
 
   public synchronized void updatePlayerWhoClaimedSet(int player) {
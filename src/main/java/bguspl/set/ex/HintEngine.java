@@ -0,0 +1,104 @@
+package bguspl.set.ex;
+
+import bguspl.set.Env;
+import java.util.Arrays;
+
+/**
+ * Prints the legal sets on the table (config.hints) from its own thread, so searching for them and printing them never
+ * delays the dealer. The dealer only signals that it placed cards (tableChanged, which does not wait for anything),
+ * and the engine then asks the table for its sets: one search per table version, shared with the computer players
+ * (see Table.sets), and none if the version is the one it already printed.
+ *
+ * Signals that arrive while the engine is busy are merged into one, so it never falls behind the dealer: it prints the
+ * latest table, and skips a table that was changed again before its hints were ready.
+ */
+class HintEngine implements Runnable {
+
+  private final Env env;
+  private final Table table;
+
+  /**
+   * True iff the table changed since the engine last looked at it (guarded by this).
+   */
+  private boolean changed;
+
+  /**
+   * True iff the engine should stop (guarded by this).
+   */
+  private boolean terminate;
+
+  /**
+   * The table version whose hints were printed last (engine thread only).
+   */
+  private long printed = -1;
+
+  HintEngine(Env env, Table table) {
+    this.env = env;
+    this.table = table;
+  }
+
+  /**
+   * The hint thread starts here.
+   */
+  @Override
+  public void run() {
+    env.logger.info(
+      "thread " + Thread.currentThread().getName() + " starting."
+    );
+    try {
+      while (awaitChange()) {
+        TableSets sets = table.sets();
+        // printed already, or replaced meanwhile (the dealer signals again once it is done)
+        if (sets.version == printed || sets.version != table.version()) continue;
+        printed = sets.version;
+        print(sets);
+      }
+    } catch (InterruptedException ignored) {}
+    env.logger.info(
+      "thread " + Thread.currentThread().getName() + " terminated."
+    );
+  }
+
+  /**
+   * Called by the dealer after placing cards on the table.
+   */
+  synchronized void tableChanged() {
+    changed = true;
+    notifyAll();
+  }
+
+  /**
+   * Called by the dealer when the game ends.
+   */
+  synchronized void terminate() {
+    terminate = true;
+    notifyAll();
+  }
+
+  /**
+   * @return - true once the table changed, false if the engine should stop.
+   */
+  private synchronized boolean awaitChange() throws InterruptedException {
+    while (!changed && !terminate) wait();
+    changed = false;
+    return !terminate;
+  }
+
+  /**
+   * Prints the slots and features of each set, in one write so the lines of two tables are never mixed.
+   */
+  private void print(TableSets sets) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < sets.count(); i++) {
+      int[] slots = sets.slots(i);
+      Arrays.sort(slots);
+      sb
+        .append("Hint: Set found: slots: ")
+        .append(Arrays.toString(slots))
+        .append(" features: ")
+        .append(Arrays.deepToString(env.util.cardsToFeatures(sets.cards(i))))
+        .append(System.lineSeparator());
+    }
+    System.out.print(sb);
+  }
+}
@@ -1,10 +1,12 @@
 package bguspl.set.ex;
 
 import bguspl.set.Env;
+import bguspl.set.GameEvents;
+import bguspl.set.Metrics;
 import java.time.Year;
 import java.util.List;
 import java.util.Random;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.CountDownLatch;
 
 /**
@@ -38,7 +40,7 @@ public class Player implements Runnable {
   /**
    * The thread representing the current player.
    */
-  private Thread playerThread;
+  private volatile Thread playerThread;
 
   /**
    * The thread of the AI (computer) player (an additional thread used to generate key presses).
@@ -58,19 +60,56 @@ public class Player implements Runnable {
   /**
    * The current score of the player.
    */
-  private int score;
+  private volatile int score;
 
   /**
-   * Queue for saving key actions
+   * Queue for saving key actions (the player thread blocks on it while there is nothing to do)
    */
-  private ConcurrentLinkedQueue<Integer> queueActions;
-
-  public int tokensCounter;
+  private LinkedBlockingQueue<Integer> queueActions;
 
   public boolean foundSet;
 
+  /**
+   * The tokens of the current claim, and whether the dealer rejected it as stale (a card of it was replaced after the
+   * token was placed), which is not penalized.
+   */
+  private volatile Claim claim;
+  public volatile boolean staleClaim;
+
   Object counterTokenLock;
 
+  /*
+   * metrics for the claims and their verdicts
+   */
+  private final Metrics.Histogram claimWait;
+  private final Metrics.Histogram claimLatency;
+  private final Metrics.Counter points;
+  private final Metrics.Counter penalties;
+  private final Metrics.Counter prechecked;
+  private final Metrics.Histogram precheckLatency;
+
+  /**
+   * The clock time the current freeze ends at (in the past when the player is not frozen).
+   */
+  private volatile long frozenUntil;
+
+  /**
+   * The freeze seconds last shown in the ui (used by the dealer thread only).
+   */
+  private long displayedFreeze;
+
+  /*
+   * the penalties and the claims the dealer ruled on (with their total latency) of this player, for the leaderboard
+   */
+  private int penaltyCount;
+  private long claimCount;
+  private long claimNanos;
+
+  /**
+   * the score the game was resumed with (0 for a new game)
+   */
+  private int restoredScore;
+
   /**
    * an array to store the tokens that are placed or not placed
    */
@@ -90,10 +129,15 @@ public class Player implements Runnable {
     this.id = id;
     this.human = human;
     this.dealer = dealer;
-    this.queueActions = new ConcurrentLinkedQueue<>();
-    tokensCounter = 0;
+    this.queueActions = new LinkedBlockingQueue<>();
     foundSet = false;
     counterTokenLock = new Object();
+    claimWait = env.metrics.histogram(Metrics.CLAIM_WAIT);
+    claimLatency = env.metrics.histogram(Metrics.CLAIM_LATENCY);
+    points = env.metrics.counter(Metrics.POINTS);
+    penalties = env.metrics.counter(Metrics.PENALTIES);
+    prechecked = env.metrics.counter(Metrics.CLAIM_PRECHECK_REJECTED);
+    precheckLatency = env.metrics.histogram(Metrics.CLAIM_PRECHECK_LATENCY);
   }
 
   /**
@@ -102,71 +146,95 @@ public class Player implements Runnable {
   @Override
   public void run() {
     playerThread = Thread.currentThread();
+    // a task the executor started late, after the game ended (the dealer saw no thread to interrupt)
+    if (terminate) return;
+    env.clock.register();
     env.logger.info(
       "thread " + Thread.currentThread().getName() + " starting."
     );
     if (!human) createArtificialIntelligence();
 
     while (!terminate) {
-      // checking if the queue is empty
-      if (queueActions.size() > 0) {
-        //enqueing action
-        int slot = queueActions.remove();
-        if (table.slotToCard[slot] != null) {
-          //trying to remove the token
-          if (!table.removeToken(id, slot)) {
-            // the token isnt removed
-            // checking whether we already have 3 tokens on the table
-            if (tokensCounter < env.config.featureSize) {
-              //placing the token
-              table.placeToken(id, slot);
-              if (table.slotToCard(slot) != null) tokensCounter++;
-              //checking if we put right now 3 tokens and then claim a set
-              if (tokensCounter == env.config.featureSize) claimSet();
-            }
-          } else {
-            //decrease the counter because we successfully removed a token
-            --tokensCounter;
-          }
-          //release readwritelock
+      // waiting for the next action
+      int slot;
+      try {
+        slot = queueActions.take();
+      } catch (InterruptedException e) {
+        continue; // either the game is terminating or a late wake up from the dealer
+      }
+      if (isFrozen(env.clock.currentTimeMillis())) continue; // dropped, like the keys pressed while frozen
+      if (table.slotToCard[slot] != null) {
+        //trying to remove the token
+        if (!table.removeToken(id, slot)) {
+          // the token isnt removed, placing it (the table refuses it if we already have 3 tokens)
+          // and claiming a set if we put right now the last token
+          if (table.placeToken(id, slot) && allTokensPlaced()) claimSet();
         }
       }
     }
 
+    env.clock.unregister();
     env.logger.info(
       "thread " + Thread.currentThread().getName() + " terminated."
     );
   }
 
   /**
-   * Creates an additional thread for an AI (computer) player. The main loop of this thread repeatedly generates
-   * key presses. If the queue ofY
-   *  key presses is full, the thread waits until it is not full.
+   * Creates an additional thread for an AI (computer) player. The main loop of this thread generates key presses at
+   * config.computerActionsPerSecond, either random ones or, with the sets strategy, the keys that move the player's
+   * tokens onto a set on the table. A sets player with nothing to press waits for the table to change.
    */
   private void createArtificialIntelligence() {
-    Random rand = new Random();
-    // note: this is a very, very smart AI (!)
-    aiThread =
-      new Thread(
-        () -> {
-          env.logger.info(
-            "thread " + Thread.currentThread().getName() + " starting."
-          );
-          while (!terminate) {
-            synchronized (this) {
-              try {
-                Thread.sleep(0);
-                keyPressed(rand.nextInt(env.config.tableSize));
-              } catch (InterruptedException e) {}
+    Random rand = new Random(env.seed + id + 1);
+    double intervalMillis = env.config.computerActionsPerSecond > 0
+      ? 1000.0 / env.config.computerActionsPerSecond
+      : 0;
+    env.executor.execute(() -> {
+      synchronized (this) {
+        aiThread = Thread.currentThread();
+      }
+      // paced players wait on the game clock, so they take part in deciding when virtual time may advance
+      if (intervalMillis > 0) env.clock.register();
+      env.logger.info("thread computer-" + id + " starting.");
+      int[] keys = new int[0];
+      int next = 0;
+      double nextAction = env.clock.currentTimeMillis();
+      try {
+        while (!terminate) {
+          if (!env.config.computerFindsSets) {
+            keyPressed(rand.nextInt(env.config.tableSize));
+          } else {
+            if (next >= keys.length) {
+              long seen = table.version();
+              TableSets sets = table.sets();
+              keys = sets.count() == 0 ? new int[0] : table.keysForSet(id, sets.slots(rand.nextInt(sets.count())));
+              next = 0;
+              if (keys.length == 0) {
+                table.awaitChange(seen);
+                continue;
+              }
             }
+            keyPressed(keys[next++]);
           }
-          env.logger.info(
-            "thread " + Thread.currentThread().getName() + " terminated."
-          );
-        },
-        "computer-" + id
-      );
-    aiThread.start();
+          if (intervalMillis > 0) {
+            nextAction += intervalMillis;
+            long wait = (long) Math.ceil(
+              nextAction - env.clock.currentTimeMillis()
+            );
+            if (wait > 0) env.clock.sleep(wait);
+            else nextAction = env.clock.currentTimeMillis(); // fell behind, do not burst
+          } else Thread.yield();
+        }
+      } catch (InterruptedException ignored) {
+        // terminated
+      }
+      synchronized (this) {
+        aiThread = null;
+        Thread.interrupted();
+      }
+      env.clock.unregister();
+      env.logger.info("thread computer-" + id + " terminated.");
+    });
   }
 
   /**
@@ -174,6 +242,10 @@ public class Player implements Runnable {
    */
   public void terminate() {
     terminate = true;
+    // wake the AI thread up if it is waiting, but not a pool thread that already moved on to another task
+    synchronized (this) {
+      if (aiThread != null) aiThread.interrupt();
+    }
   }
 
   /**
@@ -182,7 +254,17 @@ public class Player implements Runnable {
    * @param slot - the slot corresponding to the key pressed.
    */
   public void keyPressed(int slot) {
-    if (queueActions.size() <= env.config.featureSize) queueActions.add(slot);
+    if (queueActions.size() <= env.config.featureSize) {
+      env.journal.keyPressed(id, slot, dealer.ticks());
+      queueActions.add(slot);
+    }
+  }
+
+  /**
+   * @return - the number of key presses waiting to be handled.
+   */
+  public int pendingActions() {
+    return queueActions.size();
   }
 
   /**
@@ -192,72 +274,166 @@ public class Player implements Runnable {
    * @post - the player's score is updated in the ui.
    */
   public void point() {
-    try {
-      int ignored = table.countCards(); // this part is just for demonstration in the unit tests
-      // setting the score in the ui
-      env.ui.setScore(id, ++score);
-      // sleeping for 1 sec * pointFreezeMs
-      for (int i = 0; i < env.config.pointFreezeMillis / 1000; i++) {
-        // updating the timer
-        env.ui.setFreeze(id, env.config.pointFreezeMillis - i * 1000);
-        //sleep for another sec;
-        Thread.sleep(1000);
-      }
-      // unfreeze
-      env.ui.setFreeze(id, 0);
-      //clearing the queue actions.
-      queueActions.clear();
-    } catch (InterruptedException e) {
-      if (terminate) return;
-    }
+    int ignored = table.countCards(); // this part is just for demonstration in the unit tests
+    // setting the score in the ui
+    env.ui.setScore(id, ++score);
+    points.increment();
+    queueActions.clear();
+    freeze(env.config.pointFreezeMillis);
   }
 
   /**
    * Penalize a player and perform other related actions.
    */
   public void penalty() {
-    try {
-      queueActions.clear();
-    } finally {
-      try {
-        // sleeping for freeze time like in point
-        for (int i = 0; i < env.config.penaltyFreezeMillis / 1000; i++) {
-          env.ui.setFreeze(id, env.config.penaltyFreezeMillis - i * 1000);
-          Thread.sleep(1000);
-        }
-        // unfreeze and clear action queue
-        env.ui.setFreeze(id, 0);
-        queueActions.clear();
-      } catch (InterruptedException e) {
-        if (terminate) return;
-      }
+    penalties.increment();
+    penaltyCount++;
+    queueActions.clear();
+    freeze(env.config.penaltyFreezeMillis);
+  }
+
+  /**
+   * Freezes the player: the key presses it dequeues before the deadline are dropped. No thread waits for the freeze to
+   * end; the dealer shows the time left (see updateFreezeDisplay).
+   */
+  private void freeze(long millis) {
+    frozenUntil = env.clock.currentTimeMillis() + millis;
+  }
+
+  /**
+   * @return - true iff the player is frozen at the given clock time.
+   */
+  public boolean isFrozen(long now) {
+    return now < frozenUntil;
+  }
+
+  /**
+   * Shows the time left to the player's freeze in the ui, in whole seconds rounded up, when it changed. Called by the
+   * dealer on every countdown tick, so the freezes of all the players are displayed by the dealer thread.
+   *
+   * @param now - the current clock time.
+   */
+  public void updateFreezeDisplay(long now) {
+    long left = frozenUntil - now;
+    long seconds = left > 0 ? (left + 999) / 1000 : 0;
+    if (seconds != displayedFreeze) {
+      displayedFreeze = seconds;
+      env.ui.setFreeze(id, seconds * 1000);
     }
   }
 
+  /**
+   * Sets the score of a resumed game (the table restores the tokens). Called by the dealer before the player starts.
+   */
+  public void restore(int score) {
+    this.score = score;
+    restoredScore = score;
+    env.ui.setScore(id, score);
+  }
+
   public int score() {
     return score;
   }
 
+  /**
+   * @return - the score the game was resumed with, 0 for a new game.
+   */
+  public int restoredScore() {
+    return restoredScore;
+  }
+
+  public int penalties() {
+    return penaltyCount;
+  }
+
+  /**
+   * @return - the number of claims that got a verdict from the dealer (not the ones the player rejected itself).
+   */
+  public long claims() {
+    return claimCount;
+  }
+
+  /**
+   * @return - the total latency of the claims that got a verdict from the dealer, in nanoseconds.
+   */
+  public long claimNanos() {
+    return claimNanos;
+  }
+
   public Thread getPlayerThread() {
     return playerThread;
   }
 
+  /**
+   * @return - the tokens of the player's current claim.
+   */
+  public Claim claim() {
+    return claim;
+  }
+
+  /**
+   * Tests the player's own tokens before bothering the dealer, on a snapshot validated by the slot versions (see
+   * Table.claimedCards). Cards that are not a set are penalized right away, without taking the semaphore; a stale
+   * snapshot means the dealer is replacing a card under the tokens, so there is nothing to claim. Only a plausible set
+   * goes to the dealer, which still decides.
+   *
+   * @return - true iff the claim should go to the dealer.
+   */
+  private boolean plausibleClaim(long claimStart, GameEvents.ClaimEvent event) {
+    Claim snapshot = table.claim(id);
+    event.slots = GameEvents.packSlots(snapshot.slots);
+    int[] cards = table.claimedCards(snapshot);
+    if (cards == null) {
+      event.commit();
+      return false;
+    }
+    if (env.util.testSet(cards)) return true;
+    env.journal.claim(id);
+    env.journal.verdict(id, false);
+    prechecked.increment();
+    // kept apart from claim.latency, which times the dealer's verdicts
+    precheckLatency.recordSince(claimStart);
+    event.accepted = false;
+    event.commit();
+    penalty();
+    return false;
+  }
+
+  /**
+   * @return - true iff the player has all its tokens on the table. The table keeps the count, so the dealer removing
+   * the tokens on a replaced card never races with the player counting its own.
+   */
   public boolean allTokensPlaced() {
-    return tokensCounter == env.config.featureSize;
+    return table.tokenCount(id) == env.config.featureSize;
   }
 
   public void claimSet() {
+    long claimStart = System.nanoTime();
+    GameEvents.ClaimEvent event = new GameEvents.ClaimEvent();
+    event.begin();
+    event.player = id;
+    if (!plausibleClaim(claimStart, event)) return;
+    long semaphoreAt = 0;
     try {
       //initilizing for not finding a set
       this.foundSet = false;
+      this.staleClaim = false;
       //accuire the semaphore
+      semaphoreAt = dealer.locks.acquiring(dealer.semaphoreSite, dealer.setSempahore.availablePermits() == 0);
       dealer.setSempahore.acquire();
+      semaphoreAt = dealer.locks.acquired(dealer.semaphoreSite, semaphoreAt);
+      claimWait.recordSince(claimStart);
       // check that no cards from the set were removed (by other player completing a set just before)
       if (!allTokensPlaced()) {
         // if my tokens are removed i'll release the semaphore and notify all players that want to claim set
+        dealer.locks.released(dealer.semaphoreSite, semaphoreAt);
         dealer.setSempahore.release();
+        event.commit();
         return;
       }
+      env.journal.claim(id);
+      claim = table.claim(id);
+      event.slots = GameEvents.packSlots(claim.slots);
       dealer.updatePlayerWhoClaimedSet(id);
       // waiting for the dealer to check my set
       synchronized (dealer.setSempahore) {
@@ -272,8 +448,15 @@ public class Player implements Runnable {
     } catch (InterruptedException e) {
       // the dealer stopped checking my set now ill check if my foundset flag has changed
       if (terminate) return;
+      dealer.locks.released(dealer.semaphoreSite, semaphoreAt);
       dealer.setSempahore.release();
-      if (foundSet) point(); else penalty();
+      claimLatency.recordSince(claimStart);
+      claimCount++;
+      claimNanos += System.nanoTime() - claimStart;
+      event.accepted = foundSet;
+      event.commit();
+      if (foundSet) point();
+      else if (!staleClaim) penalty();
     }
     // realase the semaphore
 
@@ -1,14 +1,18 @@
 package bguspl.set.ex;
 
 import bguspl.set.Env;
-import java.util.Arrays;
+import bguspl.set.GameEvents;
+import bguspl.set.LockProfiler;
+import bguspl.set.Metrics;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 // import java.util.concurrent.Semaphore;
-import java.util.stream.Collectors;
 
 /**
  * This class contains the data that is visible to the player.
@@ -49,7 +53,65 @@ public class Table {
 
   public Object[] playersLock;
 
-  public ReadWriteLock lock; // for purpuse to make sure when the dealer replaces cards no one will enter the table
+  public ReadWriteLock lock; // for purpuse to make sure when the dealer reshuffles no one will enter the table
+
+  /**
+   * The slots whose cards the dealer is replacing: no token can be placed on or removed from them (guarded by the
+   * slot locks).
+   */
+  private final boolean[] fenced;
+
+  /**
+   * The version of each slot, incremented whenever its card is placed or removed (written under the slot lock).
+   */
+  private final AtomicLongArray slotVersions;
+
+  /**
+   * The number of cards on the table (updated under the slot locks, read without them).
+   */
+  private final AtomicInteger cards = new AtomicInteger();
+
+  /**
+   * The version of the slot each token of a player was placed at, by player and slot (guarded by the player locks).
+   */
+  private final long[][] tokenVersions;
+
+  // counters of the tokens placed and removed by the players
+
+  /**
+   * The lock profiling sites (see LockProfiler): the two sides of the table lock, every slot lock and every player
+   * lock, in the token and card operations.
+   */
+  private final LockProfiler locks;
+  private final LockProfiler.Site readSite;
+  private final LockProfiler.Site writeSite;
+  private final LockProfiler.Site[] slotSites;
+  private final LockProfiler.Site[] playerSites;
+
+  private final Metrics.Counter tokensPlaced;
+
+  private final Metrics.Counter tokensRemoved;
+
+  /**
+   * The number of card placements and removals so far: the sets on the table only change when it does.
+   */
+  private final AtomicLong version = new AtomicLong();
+
+  /**
+   * The sets found at the latest version anyone asked for, shared by all the computer players.
+   */
+  private volatile TableSets sets;
+
+  private final Object setsLock = new Object();
+
+  /**
+   * Notified whenever the version changes, for the players waiting for the table to change.
+   */
+  private final Object versionLock = new Object();
+
+  private final Metrics.Counter setsCached;
+
+  private final Metrics.Counter setsComputed;
 
   /**
    * Constructor for testing.
@@ -80,6 +142,20 @@ public class Table {
       playersLock[i] = new Object();
     }
     this.lock = new ReentrantReadWriteLock();
+    this.fenced = new boolean[env.config.tableSize];
+    this.slotVersions = new AtomicLongArray(env.config.tableSize);
+    this.tokenVersions = new long[env.config.players][env.config.tableSize];
+    this.locks = new LockProfiler(env.config.lockProfiling, env.metrics);
+    this.readSite = locks.site("table.read");
+    this.writeSite = locks.site("table.write");
+    this.slotSites = new LockProfiler.Site[env.config.tableSize];
+    for (int i = 0; i < slotSites.length; i++) slotSites[i] = locks.site("table.slot." + i);
+    this.playerSites = new LockProfiler.Site[env.config.players];
+    for (int i = 0; i < playerSites.length; i++) playerSites[i] = locks.site("table.player." + i);
+    this.tokensPlaced = env.metrics.counter(Metrics.TOKENS_PLACED);
+    this.tokensRemoved = env.metrics.counter(Metrics.TOKENS_REMOVED);
+    this.setsCached = env.metrics.counter(Metrics.TABLE_SETS_CACHED);
+    this.setsComputed = env.metrics.counter(Metrics.TABLE_SETS_COMPUTED);
   }
 
   /**
@@ -108,43 +184,136 @@ public class Table {
     this.lock = new ReentrantReadWriteLock();
   }
 
-  /**
-   * This method prints all possible legal sets of cards that are currently on the table.
-   */
-  public void hints() {
-    List<Integer> deck = Arrays
-      .stream(slotToCard)
-      .filter(Objects::nonNull)
-      .collect(Collectors.toList());
-    env.util
-      .findSets(deck, Integer.MAX_VALUE)
-      .forEach(set -> {
-        StringBuilder sb = new StringBuilder().append("Hint: Set found: ");
-        List<Integer> slots = Arrays
-          .stream(set)
-          .mapToObj(card -> cardToSlot[card])
-          .sorted()
-          .collect(Collectors.toList());
-        int[][] features = env.util.cardsToFeatures(set);
-        System.out.println(
-          sb
-            .append("slots: ")
-            .append(slots)
-            .append(" features: ")
-            .append(Arrays.deepToString(features))
-        );
-      });
-  }
-
   /**
    * Count the number of cards currently on the table.
    *
    * @return - the number of cards on the table.
    */
   public int countCards() {
-    int cards = 0;
-    for (Integer card : slotToCard) if (card != null) ++cards;
-    return cards;
+    return cards.get();
+  }
+
+  /**
+   * @return - the version of the cards on the table, incremented by every card placement and removal.
+   */
+  public long version() {
+    return version.get();
+  }
+
+  /**
+   * Waits until the version of the table is no longer the given one.
+   *
+   * @param seen - the version last seen by the caller.
+   * @throws InterruptedException - if the thread is interrupted while waiting.
+   */
+  public void awaitChange(long seen) throws InterruptedException {
+    synchronized (versionLock) {
+      while (version.get() == seen) versionLock.wait();
+    }
+  }
+
+  private void versionChanged() {
+    synchronized (versionLock) {
+      versionLock.notifyAll();
+    }
+  }
+
+  /**
+   * Returns the legal sets on the table. They are searched for once per table version, by the first caller, and the
+   * other callers of the same version get the same object, so any number of players costs one search per change.
+   *
+   * @return - the sets at the current version (or at one that changed while the search was running, in which case
+   *           the next call searches again).
+   */
+  public TableSets sets() {
+    TableSets cached = sets;
+    if (cached != null && cached.version == version.get()) {
+      setsCached.increment();
+      return cached;
+    }
+    synchronized (setsLock) {
+      cached = sets;
+      long current = version.get();
+      if (cached != null && cached.version == current) {
+        setsCached.increment();
+        return cached;
+      }
+      int[] cardToSlot = new int[env.config.deckSize];
+      List<Integer> cards = new ArrayList<>();
+      for (int slot = 0; slot < slotToCard.length; slot++) {
+        Integer card = slotToCard(slot);
+        if (card != null) {
+          cards.add(card);
+          cardToSlot[card] = slot;
+        }
+      }
+      List<int[]> slots = new ArrayList<>();
+      List<int[]> found = env.util.findSets(cards, Integer.MAX_VALUE);
+      for (int[] set : found) {
+        int[] setSlots = new int[set.length];
+        for (int i = 0; i < set.length; i++) setSlots[i] = cardToSlot[set[i]];
+        slots.add(setSlots);
+      }
+      cached = new TableSets(current, slots, found);
+      sets = cached;
+      setsComputed.increment();
+      return cached;
+    }
+  }
+
+  /**
+   * Fences slots whose cards are about to be replaced, so the players can keep using the rest of the table meanwhile.
+   * Until unfenced, placing or removing a token on them fails, so the tokens the dealer finds on a slot are still
+   * there when it removes the card.
+   *
+   * @param slots - the slots to fence.
+   */
+  public void fence(int[] slots) {
+    for (int slot : slots) {
+      long at = locks.acquiring(slotSites[slot], slotSites[slot].held());
+      synchronized (slotLocks[slot]) {
+        at = locks.acquired(slotSites[slot], at);
+        fenced[slot] = true;
+        locks.released(slotSites[slot], at);
+      }
+    }
+  }
+
+  /**
+   * Lets the players use fenced slots again.
+   *
+   * @param slots - the slots to unfence.
+   */
+  public void unfence(int[] slots) {
+    for (int slot : slots) {
+      long at = locks.acquiring(slotSites[slot], slotSites[slot].held());
+      synchronized (slotLocks[slot]) {
+        at = locks.acquired(slotSites[slot], at);
+        fenced[slot] = false;
+        locks.released(slotSites[slot], at);
+      }
+    }
+  }
+
+  /**
+   * Takes the table write lock, which keeps the players off the whole table (for reshuffles and checkpoints).
+   *
+   * @return - the time it was acquired (for the lock profiling), to pass to unlockTable.
+   */
+  public long lockTable() {
+    long at = locks.acquiring(writeSite, readSite.held() || writeSite.held());
+    lock.writeLock().lock();
+    return locks.acquired(writeSite, at);
+  }
+
+  /**
+   * Releases the table write lock.
+   *
+   * @param lockedAt - the value returned by lockTable.
+   */
+  public void unlockTable(long lockedAt) {
+    locks.released(writeSite, lockedAt);
+    lock.writeLock().unlock();
   }
 
   /**
@@ -155,13 +324,62 @@ public class Table {
    * @post - the card placed is on the table, in the assigned slot.
    */
   public void placeCard(int card, int slot) {
+    GameEvents.CardPlaceEvent event = new GameEvents.CardPlaceEvent();
+    event.begin();
     try {
-      Thread.sleep(env.config.tableDelayMillis);
+      env.clock.sleep(env.config.tableDelayMillis);
     } catch (InterruptedException ignored) {}
+    long at = locks.acquiring(slotSites[slot], slotSites[slot].held());
     synchronized (slotLocks[slot]) {
+      at = locks.acquired(slotSites[slot], at);
       cardToSlot[card] = slot;
       slotToCard[slot] = card;
+      cards.incrementAndGet();
+      slotVersions.incrementAndGet(slot);
+      version.incrementAndGet();
       env.ui.placeCard(card, slotForUi(slot));
+      locks.released(slotSites[slot], at);
+    }
+    versionChanged();
+    env.journal.cardPlaced(card, slot);
+    event.card = card;
+    event.slot = slot;
+    event.commit();
+  }
+
+  /**
+   * Puts back the cards and tokens of a checkpoint, without the table delay. Called by the dealer before the players
+   * start.
+   * @param slotToCard   - the card in each slot (-1 if none).
+   * @param playerTokens - the slots of the tokens of each player.
+   */
+  public void restore(int[] slotToCard, int[][] playerTokens) {
+    for (int slot = 0; slot < slotToCard.length; slot++) {
+      int card = slotToCard[slot];
+      if (card < 0) continue;
+      synchronized (slotLocks[slot]) {
+        cardToSlot[card] = slot;
+        this.slotToCard[slot] = card;
+        cards.incrementAndGet();
+        slotVersions.incrementAndGet(slot);
+        version.incrementAndGet();
+        env.ui.placeCard(card, slotForUi(slot));
+      }
+      env.journal.cardPlaced(card, slot);
+    }
+    versionChanged();
+    for (int player = 0; player < playerTokens.length; player++) {
+      for (int slot : playerTokens[player]) {
+        synchronized (slotLocks[slot]) {
+          synchronized (playersLock[player]) {
+            tokens[slot].add(player);
+            playersTokens[player].add(slot);
+            tokenVersions[player][slot] = slotVersions.get(slot);
+            env.journal.tokenPlaced(player, slot);
+            env.ui.placeToken(player, slotForUi(slot));
+          }
+        }
+      }
     }
   }
 
@@ -170,14 +388,22 @@ public class Table {
    * @param slot - the slot from which to remove the card.
    */
   public void removeCard(int slot) {
+    GameEvents.CardRemoveEvent event = new GameEvents.CardRemoveEvent();
+    event.begin();
     try {
-      Thread.sleep(env.config.tableDelayMillis);
+      env.clock.sleep(env.config.tableDelayMillis);
     } catch (InterruptedException ignored) {}
+    long at = locks.acquiring(slotSites[slot], slotSites[slot].held());
     synchronized (slotLocks[slot]) {
+      at = locks.acquired(slotSites[slot], at);
       // syncing the slot
       int card = slotToCard[slot];
+      event.card = card;
       cardToSlot[card] = null;
       slotToCard[slot] = null;
+      cards.decrementAndGet();
+      slotVersions.incrementAndGet(slot);
+      version.incrementAndGet();
       // clear all tokens
       tokens[slot] = new LinkedList<Integer>();
       // Iterating all players to find which hold tokens on the removed card
@@ -185,44 +411,75 @@ public class Table {
         LinkedList<Integer> playerTokens = playersTokens[playerId];
         // for(LinkedList<Integer> playerTokens:playersTokens){
         // Iterating a certain player's tokens to find one that represents the slot
-        for (int i = 0; i < playerTokens.size(); i++) {
-          synchronized (playersLock[playerId]) {
+        // (under the player's lock, since the player may be changing its tokens on other slots)
+        long playerAt = locks.acquiring(playerSites[playerId], playerSites[playerId].held());
+        synchronized (playersLock[playerId]) {
+          playerAt = locks.acquired(playerSites[playerId], playerAt);
+          for (int i = 0; i < playerTokens.size(); i++) {
             if (playerTokens.get(i) == slot) {
               playerTokens.remove(i);
               break; //breaks out of the player search loop, continues removing tokens from other players.
             }
           }
+          locks.released(playerSites[playerId], playerAt);
         }
       }
       env.ui.removeTokens(slotForUi(slot));
       env.ui.removeCard(slotForUi(slot));
+      locks.released(slotSites[slot], at);
     }
+    versionChanged();
+    env.journal.cardRemoved(event.card, slot);
+    event.slot = slot;
+    event.commit();
   }
 
   /**
    * Places a player token on a grid slot.
    * @param player - the player the token belongs to.
    * @param slot   - the slot on which to place the token.
+   * @return       - true iff the token was placed (there is a card in the slot, it is not being replaced and the
+   *                 player has tokens left).
    */
-  public void placeToken(int player, int slot) {
+  public boolean placeToken(int player, int slot) {
+    GameEvents.TokenPlaceEvent event = new GameEvents.TokenPlaceEvent();
+    event.begin();
+    long readAt = locks.acquiring(readSite, writeSite.held());
     this.lock.readLock().lock();
+    readAt = locks.acquired(readSite, readAt);
     // sync the slot and the player
+    long slotAt = locks.acquiring(slotSites[slot], slotSites[slot].held());
     synchronized (slotLocks[slot]) {
+      slotAt = locks.acquired(slotSites[slot], slotAt);
+      long playerAt = locks.acquiring(playerSites[player], playerSites[player].held());
       synchronized (playersLock[player]) {
+        playerAt = locks.acquired(playerSites[player], playerAt);
         //checking if the player put already 3 tokens
         if (
           slotToCard[slot] != null &&
+          !fenced[slot] &&
           playersTokens[player].size() < env.config.featureSize
         ) {
           // adding the token to the playersToken array and to the table tokens
           tokens[slot].add(player);
           playersTokens[player].add(slot);
+          tokenVersions[player][slot] = slotVersions.get(slot);
+          tokensPlaced.increment();
+          env.journal.tokenPlaced(player, slot);
+          event.placed = true;
           //displaying in the ui
           env.ui.placeToken(player, slotForUi(slot));
         }
+        locks.released(playerSites[player], playerAt);
       }
+      locks.released(slotSites[slot], slotAt);
     }
+    locks.released(readSite, readAt);
     this.lock.readLock().unlock();
+    event.player = player;
+    event.slot = slot;
+    event.commit();
+    return event.placed;
   }
 
   /**
@@ -232,10 +489,20 @@ public class Table {
    * @return       - true iff a token was successfully removed.
    */
   public boolean removeToken(int player, int slot) {
+    GameEvents.TokenRemoveEvent event = new GameEvents.TokenRemoveEvent();
+    event.begin();
+    event.player = player;
+    event.slot = slot;
+    long readAt = locks.acquiring(readSite, writeSite.held());
     this.lock.readLock().lock();
+    readAt = locks.acquired(readSite, readAt);
     // sync on the slot and on the player lock so only 1 action per player and per slot
+    long slotAt = locks.acquiring(slotSites[slot], slotSites[slot].held());
     synchronized (slotLocks[slot]) {
+      slotAt = locks.acquired(slotSites[slot], slotAt);
+      long playerAt = locks.acquiring(playerSites[player], playerSites[player].held());
       synchronized (playersLock[player]) {
+        playerAt = locks.acquired(playerSites[player], playerAt);
         int index = -1;
         int counter = 0;
         // searching for the player token in the slot
@@ -246,26 +513,29 @@ public class Table {
           }
           counter++;
         }
-        if (index == -1) {
-          // if we didnt found a token on the player we return false
-          this.lock.readLock().unlock();
-          return false;
-        }
-        // removing the token from the playerTokens list
-        for (int i = 0; i < playersTokens[player].size(); i++) {
-          if (
-            playersTokens[player].get(i) == slot
-          ) playersTokens[player].remove(i);
+        // if we didnt found a token on the player (or the dealer is taking the tokens of the slot) we return false
+        if (index != -1 && !fenced[slot]) {
+          // removing the token from the playerTokens list
+          for (int i = 0; i < playersTokens[player].size(); i++) {
+            if (
+              playersTokens[player].get(i) == slot
+            ) playersTokens[player].remove(i);
+          }
+          tokens[slot].remove(index);
+          tokensRemoved.increment();
+          env.journal.tokenRemoved(player, slot);
+          // updating in the ui
+          env.ui.removeToken(player, slotForUi(slot));
+          event.removed = true;
         }
-        tokens[slot].remove(index);
-        // updating in the ui
-        env.ui.removeToken(player, slotForUi(slot));
-
-        this.lock.readLock().unlock();
-
-        return true;
+        locks.released(playerSites[player], playerAt);
       }
+      locks.released(slotSites[slot], slotAt);
     }
+    locks.released(readSite, readAt);
+    this.lock.readLock().unlock();
+    event.commit();
+    return event.removed;
   }
 
   // function to convert slot for Ui placement
@@ -275,38 +545,94 @@ public class Table {
     return row * env.config.columns + col;
   }
 
-  // a function for the dealer to check a set from a certain player
   /**
+   * Takes the tokens of a player for a claim: their slots and the slot versions they were placed at. Only takes the
+   * player's lock, so a player can call it for itself.
    *
-   * @param player
-   * @pre playersToken[player].length = env.config.featuresize
-   *
+   * @param player - the player claiming a set.
+   * @return       - the claim.
    */
-  public int[] getSetCards(int player) {
-    int[] cards = new int[env.config.featureSize];
-    int counter = 0;
+  public Claim claim(int player) {
+    long at = locks.acquiring(playerSites[player], playerSites[player].held());
     synchronized (playersLock[player]) {
+      at = locks.acquired(playerSites[player], at);
+      int[] slots = new int[playersTokens[player].size()];
+      long[] versions = new long[slots.length];
+      int i = 0;
       for (int slot : playersTokens[player]) {
-        synchronized (slotLocks[slot]) {
-          cards[counter] = slotToCard[slot];
-          counter++;
-        }
+        slots[i] = slot;
+        versions[i++] = tokenVersions[player][slot];
       }
+      locks.released(playerSites[player], at);
+      return new Claim(player, slots, versions);
     }
-    return cards;
   }
 
-  // this function get all the players that has put thier token on a certain slot for use in remove cards in dealer class
-  public LinkedList<Integer> getAllPlayersThatPlacedTokenOnSlot(int slot) {
-    LinkedList<Integer> players = new LinkedList<>();
-    // sync on the slot
-    synchronized (slotLocks[slot]) {
-      // adding all the players id that put thier token on the slot
-      for (int player : tokens[slot]) {
-        players.add(player);
+  /**
+   * @param player - the player.
+   * @param set    - the slots of a set.
+   * @return       - the slots the player should press so that its tokens end up exactly on the set: first the ones
+   *                 holding its tokens that are not part of the set (to remove them), then the ones of the set without
+   *                 a token.
+   */
+  public int[] keysForSet(int player, int[] set) {
+    List<Integer> owned;
+    long at = locks.acquiring(playerSites[player], playerSites[player].held());
+    synchronized (playersLock[player]) {
+      at = locks.acquired(playerSites[player], at);
+      owned = new ArrayList<>(playersTokens[player]);
+      locks.released(playerSites[player], at);
+    }
+    List<Integer> keys = new ArrayList<>();
+    for (int slot : owned) {
+      boolean inSet = false;
+      for (int s : set) inSet |= s == slot;
+      if (!inSet) keys.add(slot);
+    }
+    for (int slot : set) if (!owned.contains(slot)) keys.add(slot);
+    return keys.stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  /**
+   * Checks that none of the slots of a claim changed since the tokens were placed on them, by comparing versions, in
+   * O(featureSize). Each card is read under its slot's lock together with the slot's version (the card and the
+   * version change together under it), so when the version matches the stamp it is the card the token was placed on.
+   * A slot whose version already moved on is rejected without locking. Takes one slot lock at a time and no other.
+   *
+   * @param claim - a claim taken with claim().
+   * @return      - the cards of the claim, or null if it is stale (a card was replaced, or a token is missing).
+   */
+  public int[] claimedCards(Claim claim) {
+    if (claim.slots.length != env.config.featureSize) return null;
+    int[] cards = new int[claim.slots.length];
+    for (int i = 0; i < cards.length; i++) {
+      int slot = claim.slots[i];
+      if (slotVersions.get(slot) != claim.versions[i]) return null;
+      Integer card;
+      long at = locks.acquiring(slotSites[slot], slotSites[slot].held());
+      synchronized (slotLocks[slot]) {
+        at = locks.acquired(slotSites[slot], at);
+        card = slotVersions.get(slot) == claim.versions[i] ? slotToCard[slot] : null;
+        locks.released(slotSites[slot], at);
       }
+      if (card == null) return null;
+      cards[i] = card;
+    }
+    return cards;
+  }
+
+  /**
+   * @param player - the player.
+   * @return       - the number of tokens the player has on the table.
+   */
+  public int tokenCount(int player) {
+    long at = locks.acquiring(playerSites[player], playerSites[player].held());
+    synchronized (playersLock[player]) {
+      at = locks.acquired(playerSites[player], at);
+      int count = playersTokens[player].size();
+      locks.released(playerSites[player], at);
+      return count;
     }
-    return players;
   }
 
   public Integer slotToCard(int slotVal) {
@@ -315,8 +641,11 @@ public class Table {
     }
   }
 
-  public int cardToSlot(int cardVal) {
-    synchronized (slotLocks[cardVal]) {
+  public Integer cardToSlot(int cardVal) {
+    Integer slot = cardToSlot[cardVal];
+    if (slot == null) return null;
+    // under the lock of the slot the card was seen in, where it is placed and removed
+    synchronized (slotLocks[slot]) {
       return cardToSlot[cardVal];
     }
   }
@@ -0,0 +1,54 @@
+package bguspl.set.ex;
+
+import java.util.List;
+
+/**
+ * The legal sets on the table at one version of its cards (see Table.sets). Immutable, so all the computer players
+ * can share it.
+ */
+public final class TableSets {
+
+  /**
+   * The table version the sets were found at.
+   */
+  public final long version;
+
+  /**
+   * The slots of the cards of each set.
+   */
+  private final List<int[]> slots;
+
+  /**
+   * The cards of each set, in the order of their slots.
+   */
+  private final List<int[]> cards;
+
+  TableSets(long version, List<int[]> slots, List<int[]> cards) {
+    this.version = version;
+    this.slots = slots;
+    this.cards = cards;
+  }
+
+  /**
+   * @return - the number of sets.
+   */
+  public int count() {
+    return slots.size();
+  }
+
+  /**
+   * @param index - the index of a set, 0 <= index < count().
+   * @return - a copy of the slots of the set.
+   */
+  public int[] slots(int index) {
+    return slots.get(index).clone();
+  }
+
+  /**
+   * @param index - the index of a set, 0 <= index < count().
+   * @return - a copy of the cards of the set.
+   */
+  public int[] cards(int index) {
+    return cards.get(index).clone();
+  }
+}
@@ -0,0 +1,276 @@
+package bguspl.set;
+
+import bguspl.set.ex.Dealer;
+import bguspl.set.ex.Player;
+import bguspl.set.ex.Table;
+import bguspl.set.ex.TableSets;
+
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * A steady-state allocation check of the token and claim paths: plays headless games on a VirtualClock with synthetic
+ * players pressing keys at a fixed rate, measures the bytes allocated by the game threads with
+ * com.sun.management.ThreadMXBean and fails when a path allocates more than its budget per operation. It is skipped on
+ * a JVM that does not count the bytes allocated by threads.
+ *
+ * It runs two phases. In the tokens phase every player keeps toggling a token on its own slot, so only the token path
+ * runs: the player threads' bytes per key press are the token cost, and the dealer's bytes per second of game time are
+ * its countdown cost. In the claims phase the players press the keys of the sets on the table, so about every third
+ * press claims a set, and games follow each other as the decks run out: the bytes of the game threads beyond those two
+ * costs, per claim, are the claim cost (the claim, the verdict, the replacement of the cards and a share of starting
+ * and ending the games). The game threads come from a pool that outlives the games, so they are measured across them.
+ * Each phase starts with warm up presses that are not measured, and then waits for the JIT compiler to finish with
+ * them; the claims phase needs fewer, as the token path it shares with the tokens phase is compiled by then.
+ *
+ * The defaults keep the test to a few seconds; any config.properties key can be overridden with a system property
+ * (here the freezes and the table delay default to 0 and the turn to 3 seconds, so the games end soon after their
+ * decks), in addition to: AllocPlayers (default 4), AllocActions (measured key presses of the tokens phase, default
+ * 5000), AllocClaims (measured claims, default 100), AllocWarmupActions (tokens phase, default 10000),
+ * AllocClaimWarmupActions (claims phase, default 2000), AllocActionsPerSecond (per player, in game time, default
+ * 200), AllocTokenBudget (bytes per key press, default 256) and AllocClaimBudget (bytes per claim, default 8192).
+ * For example:
+ * mvn test -Dtest=AllocationBudgetTest -DAllocActions=20000 -DAllocClaims=500
+ */
+class AllocationBudgetTest {
+
+    /**
+     * The key presses between two measurements of the threads.
+     */
+    private static final int CHUNK = 1000;
+
+    private Env env;
+    private ExecutorService executor;
+    private List<Thread> pool;
+    private com.sun.management.ThreadMXBean threads;
+    private double actionIntervalMillis;
+
+    /**
+     * The game being played.
+     */
+    private Player[] players;
+    private Table table;
+    private Dealer dealer;
+    private Future<?> game;
+
+    /**
+     * The measurements of the current phase.
+     */
+    private long measuredActions;
+    private long measuredClaims;
+    private long measuredMillis;
+    private long gameBytes;
+    private long dealerBytes;
+
+    @Test
+    void tokenAndClaimPathsStayWithinBudget() throws InterruptedException {
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported(),
+                "this JVM does not measure the memory allocated by threads");
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        Logger logger = Logger.getLogger("SetGameAllocationLogger");
+        logger.setUseParentHandlers(false);
+        Properties properties = Config.loadProperties("config.properties", logger);
+        // presses dropped during a freeze or a table delay would be measured as free
+        properties.setProperty("PointFreezeSeconds", "0");
+        properties.setProperty("PenaltyFreezeSeconds", "0");
+        properties.setProperty("TableDelaySeconds", "0");
+        properties.setProperty("TurnTimeoutSeconds", "3");
+        for (String key : System.getProperties().stringPropertyNames())
+            if (properties.containsKey(key)) properties.setProperty(key, System.getProperty(key));
+        // the synthetic players drive the same input path as the keyboard
+        properties.setProperty("HumanPlayers", System.getProperty("AllocPlayers", "4"));
+        properties.setProperty("ComputerPlayers", "0");
+        properties.setProperty("Hints", "False");
+
+        Config config = new Config(logger, properties);
+        Util util = new UtilImpl(config);
+        pool = new CopyOnWriteArrayList<>();
+        executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 1, TimeUnit.HOURS, new SynchronousQueue<>(), task -> {
+            Thread thread = new Thread(task, "game-" + pool.size());
+            thread.setDaemon(true);
+            pool.add(thread);
+            return thread;
+        });
+        VirtualClock clock = new VirtualClock(System.currentTimeMillis());
+        env = new Env(logger, config, new UserInterfaceDecorator(logger, util, null), util, new Metrics(), clock,
+                executor);
+
+        long actions = Long.parseLong(System.getProperty("AllocActions", "5000").trim());
+        long claims = Long.parseLong(System.getProperty("AllocClaims", "100").trim());
+        long warmup = Long.parseLong(System.getProperty("AllocWarmupActions", "10000").trim());
+        long claimWarmup = Long.parseLong(System.getProperty("AllocClaimWarmupActions", "2000").trim());
+        actionIntervalMillis = 1000.0 / Double.parseDouble(System.getProperty("AllocActionsPerSecond", "200"));
+        long tokenBudget = Long.parseLong(System.getProperty("AllocTokenBudget", "256").trim());
+        long claimBudget = Long.parseLong(System.getProperty("AllocClaimBudget", "8192").trim());
+
+        double tokenBytes;
+        double claimBytes;
+        try {
+            runPhase(false, actions, warmup);
+            tokenBytes = (double) (gameBytes - dealerBytes) / measuredActions;
+            double tickBytesPerMilli = (double) dealerBytes / measuredMillis;
+            System.out.printf(Locale.ROOT, "tokens phase: %d presses in %.1f s of game time%n"
+                            + "  player threads: %.1f bytes/press, dealer thread: %.1f bytes/s%n",
+                    measuredActions, measuredMillis / 1000.0, tokenBytes, tickBytesPerMilli * 1000);
+
+            runPhase(true, claims, claimWarmup);
+            claimBytes = (gameBytes - tokenBytes * measuredActions - tickBytesPerMilli * measuredMillis)
+                    / Math.max(1, measuredClaims);
+            System.out.printf(Locale.ROOT, "claims phase: %d presses, %d claims in %.1f s of game time%n"
+                            + "  game threads: %.1f bytes/press, claims: %.1f bytes/claim%n",
+                    measuredActions, measuredClaims, measuredMillis / 1000.0, (double) gameBytes / measuredActions,
+                    claimBytes);
+        } finally {
+            executor.shutdown();
+            clock.shutdown();
+        }
+
+        assertTrue(tokenBytes <= tokenBudget, String.format(Locale.ROOT,
+                "token path: %.1f bytes/press, budget %d", tokenBytes, tokenBudget));
+        assertTrue(claimBytes <= claimBudget, String.format(Locale.ROOT,
+                "claim path: %.1f bytes/claim, budget %d", claimBytes, claimBudget));
+    }
+
+    /**
+     * Presses keys until a phase measured enough operations, starting a new game whenever one ends.
+     *
+     * @param claims        - false to only toggle tokens, true to press the keys of the sets on the table.
+     * @param operations    - the key presses (tokens phase) or claims (claims phase) to measure.
+     * @param warmupActions - the key presses to make before measuring.
+     */
+    private void runPhase(boolean claims, long operations, long warmupActions) throws InterruptedException {
+        measuredActions = measuredClaims = measuredMillis = gameBytes = dealerBytes = 0;
+        // the driver never blocks, so it takes part in deciding when virtual time may advance
+        env.clock.register();
+        Random random = new Random(env.seed);
+        int[][] targets = new int[env.config.players][0];
+        int[] next = new int[env.config.players];
+        double nextAction = env.clock.currentTimeMillis();
+        long pressed = 0;
+        boolean compiled = false;
+        try {
+            while ((claims ? measuredClaims : measuredActions) < operations) {
+                if (game == null || game.isDone()) {
+                    startGame();
+                    Arrays.fill(next, Integer.MAX_VALUE); // the targets were on the previous table
+                }
+                if (!compiled && pressed >= warmupActions) {
+                    awaitCompilation();
+                    compiled = true;
+                }
+                Thread dealerThread = dealer.dealerThread;
+                long gameBefore = poolBytes();
+                long dealerBefore = threads.getThreadAllocatedBytes(dealerThread.getId());
+                long claimsBefore = env.metrics.histogram(Metrics.CLAIM_LATENCY).count();
+                long start = env.clock.currentTimeMillis();
+                int chunk = 0;
+                while (chunk < CHUNK) {
+                    if (game.isDone()) {
+                        if (!claims) break; // the dealer thread measured is gone
+                        startGame();
+                        Arrays.fill(next, Integer.MAX_VALUE);
+                    }
+                    for (Player player : players) {
+                        if (player.pendingActions() > 0) continue; // a dropped press would be measured as free
+                        if (!claims) {
+                            player.keyPressed(player.id);
+                            chunk++;
+                            continue;
+                        }
+                        if (next[player.id] >= targets[player.id].length) {
+                            TableSets sets = table.sets();
+                            targets[player.id] = sets.count() == 0 ? new int[0] : table.keysForSet(player.id,
+                                    sets.slots(random.nextInt(sets.count())));
+                            next[player.id] = 0;
+                        }
+                        if (next[player.id] < targets[player.id].length) {
+                            player.keyPressed(targets[player.id][next[player.id]++]);
+                            chunk++;
+                        }
+                    }
+                    nextAction += actionIntervalMillis;
+                    long wait = (long) Math.ceil(nextAction - env.clock.currentTimeMillis());
+                    if (wait > 0) env.clock.sleep(wait);
+                    else nextAction = env.clock.currentTimeMillis(); // fell behind, do not burst
+                }
+                long gameAfter = poolBytes();
+                long dealerAfter = threads.getThreadAllocatedBytes(dealerThread.getId());
+                pressed += chunk;
+                if (pressed <= warmupActions || chunk < CHUNK) continue;
+                gameBytes += gameAfter - gameBefore;
+                dealerBytes += dealerAfter - dealerBefore;
+                measuredActions += chunk;
+                measuredClaims += env.metrics.histogram(Metrics.CLAIM_LATENCY).count() - claimsBefore;
+                measuredMillis += env.clock.currentTimeMillis() - start;
+            }
+        } finally {
+            env.clock.unregister();
+            endGame();
+        }
+    }
+
+    /**
+     * Waits until the JIT compiler finished the methods the warm up made hot, so the measured presses run compiled
+     * (and escape analysed) code rather than whatever the compiler threads got to so far.
+     */
+    private static void awaitCompilation() throws InterruptedException {
+        CompilationMXBean compiler = ManagementFactory.getCompilationMXBean();
+        if (compiler == null || !compiler.isCompilationTimeMonitoringSupported()) return;
+        long before;
+        do {
+            before = compiler.getTotalCompilationTime();
+            Thread.sleep(200);
+        } while (compiler.getTotalCompilationTime() != before);
+    }
+
+    /**
+     * @return - the bytes allocated so far by the threads of the pool the games run on.
+     */
+    private long poolBytes() {
+        long bytes = 0;
+        for (Thread thread : pool) bytes += Math.max(0, threads.getThreadAllocatedBytes(thread.getId()));
+        return bytes;
+    }
+
+    private void startGame() throws InterruptedException {
+        endGame();
+        players = new Player[env.config.players];
+        table = new Table(env);
+        dealer = new Dealer(env, table, players);
+        for (int i = 0; i < players.length; i++) players[i] = new Player(env, dealer, table, i, true);
+        game = executor.submit(dealer);
+        while (dealer.dealerThread == null) Thread.sleep(1);
+        for (Player player : players) while (player.getPlayerThread() == null) Thread.sleep(1);
+    }
+
+    private void endGame() throws InterruptedException {
+        if (game == null) return;
+        dealer.terminate();
+        try {
+            game.get();
+        } catch (ExecutionException e) {
+            env.logger.severe("game failed: " + e.getCause());
+        }
+        game = null;
+    }
+}
@@ -0,0 +1,79 @@
+package bguspl.set.stress;
+
+import bguspl.set.Config;
+import bguspl.set.Env;
+import bguspl.set.HeadlessUserInterface;
+import bguspl.set.UtilImpl;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * The game environment of the stress tests (no logging, no table delays and no user interface, so the actors race
+ * on the table itself) and the table invariants they check once the actors are done.
+ */
+final class StressEnv {
+
+    /**
+     * Shared by all the tests: creating a table only reads it.
+     */
+    static final Env ENV = create();
+
+    private StressEnv() {
+    }
+
+    private static Env create() {
+        Properties properties = new Properties();
+        properties.setProperty("LogLevel", "OFF");
+        properties.setProperty("HumanPlayers", "0");
+        properties.setProperty("ComputerPlayers", "2");
+        properties.setProperty("TableDelaySeconds", "0");
+        properties.setProperty("Hints", "False");
+
+        Logger logger = Logger.getAnonymousLogger();
+        logger.setUseParentHandlers(false);
+        Config config = new Config(logger, properties);
+        return new Env(logger, config, new HeadlessUserInterface(), new UtilImpl(config));
+    }
+
+    /**
+     * @return - a table with card i in slot i.
+     */
+    static StressTable fullTable() {
+        StressTable table = new StressTable();
+        for (int slot = 0; slot < ENV.config.tableSize; slot++) table.placeCard(slot, slot);
+        return table;
+    }
+
+    /**
+     * Checks the table invariants: slotToCard[x] == y iff cardToSlot[y] == x, no token on an empty slot, the tokens
+     * of a slot and of a player agree, and no player has more than featureSize tokens (or two on the same slot).
+     *
+     * @return - true iff they all hold.
+     */
+    static boolean invariantsHold(StressTable table) {
+        for (int slot = 0; slot < ENV.config.tableSize; slot++) {
+            Integer card = table.slotToCard(slot);
+            if (card != null && !Integer.valueOf(slot).equals(table.cardToSlot(card))) return false;
+            List<Integer> players = table.playersOn(slot);
+            if (card == null && !players.isEmpty()) return false;
+            for (int player : players)
+                if (!table.playersTokens[player].contains(slot)) return false;
+        }
+        for (int card = 0; card < ENV.config.deckSize; card++) {
+            Integer slot = table.cardToSlot(card);
+            if (slot != null && !Integer.valueOf(card).equals(table.slotToCard(slot))) return false;
+        }
+        for (int player = 0; player < ENV.config.players; player++) {
+            LinkedList<Integer> slots = table.playersTokens[player];
+            if (slots.size() > ENV.config.featureSize || table.tokenCount(player) != slots.size()) return false;
+            for (int slot : slots) {
+                if (slots.indexOf(slot) != slots.lastIndexOf(slot)) return false;
+                if (!table.playersOn(slot).contains(player)) return false;
+            }
+        }
+        return true;
+    }
+}
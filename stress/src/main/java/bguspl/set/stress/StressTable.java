@@ -0,0 +1,25 @@
+package bguspl.set.stress;
+
+import bguspl.set.ex.Table;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A table whose per-slot token lists the arbiters can read, to check them against the per-player ones.
+ */
+final class StressTable extends Table {
+
+    StressTable() {
+        super(StressEnv.ENV);
+    }
+
+    /**
+     * @return - the players with a token on a slot, read under the slot's lock.
+     */
+    List<Integer> playersOn(int slot) {
+        synchronized (slotLocks[slot]) {
+            return new ArrayList<>(tokens[slot]);
+        }
+    }
+}
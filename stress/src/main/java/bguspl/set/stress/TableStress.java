@@ -0,0 +1,145 @@
+package bguspl.set.stress;
+
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Arbiter;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.IZ_Result;
+import org.openjdk.jcstress.infra.results.ZZZ_Result;
+import org.openjdk.jcstress.infra.results.ZZ_Result;
+
+import static org.openjdk.jcstress.annotations.Expect.ACCEPTABLE;
+import static org.openjdk.jcstress.annotations.Expect.FORBIDDEN;
+
+/**
+ * Races a player's token operations against the dealer's card operations on the same slots, and checks the table
+ * invariants (see StressEnv.invariantsHold) once both are done. Player 0 plays on a table with card i in slot i.
+ */
+public class TableStress {
+
+    @JCStressTest
+    @Outcome(id = "true, true", expect = ACCEPTABLE, desc = "Token placed, then removed with the card.")
+    @Outcome(id = "false, true", expect = ACCEPTABLE, desc = "Card removed first, the token is refused.")
+    @Outcome(expect = FORBIDDEN, desc = "A token left on an empty slot, or the table is inconsistent.")
+    @State
+    public static class PlaceTokenVsRemoveCard {
+
+        final StressTable table = StressEnv.fullTable();
+
+        @Actor
+        public void player(ZZ_Result r) {
+            r.r1 = table.placeToken(0, 0);
+        }
+
+        @Actor
+        public void dealer() {
+            table.removeCard(0);
+        }
+
+        @Arbiter
+        public void arbiter(ZZ_Result r) {
+            r.r2 = StressEnv.invariantsHold(table) && table.tokenCount(0) == 0;
+        }
+    }
+
+    @JCStressTest
+    @Outcome(id = "true, true", expect = ACCEPTABLE, desc = "Token removed by the player, then the card.")
+    @Outcome(id = "false, true", expect = ACCEPTABLE, desc = "Card removed first, with the token.")
+    @Outcome(expect = FORBIDDEN, desc = "The token survived, or the table is inconsistent.")
+    @State
+    public static class RemoveTokenVsRemoveCard {
+
+        final StressTable table = StressEnv.fullTable();
+
+        public RemoveTokenVsRemoveCard() {
+            table.placeToken(0, 0);
+        }
+
+        @Actor
+        public void player(ZZ_Result r) {
+            r.r1 = table.removeToken(0, 0);
+        }
+
+        @Actor
+        public void dealer() {
+            table.removeCard(0);
+        }
+
+        @Arbiter
+        public void arbiter(ZZ_Result r) {
+            r.r2 = StressEnv.invariantsHold(table) && table.tokenCount(0) == 0;
+        }
+    }
+
+    /**
+     * Two threads placing the last token of the same player on different slots: the table alone keeps the count, so
+     * exactly one of them may succeed.
+     */
+    @JCStressTest
+    @Outcome(id = {"true, false, true", "false, true, true"}, expect = ACCEPTABLE, desc = "One last token placed.")
+    @Outcome(expect = FORBIDDEN, desc = "More than featureSize tokens, or none placed.")
+    @State
+    public static class LastToken {
+
+        final StressTable table = StressEnv.fullTable();
+        final int featureSize = StressEnv.ENV.config.featureSize;
+
+        public LastToken() {
+            for (int slot = 0; slot < featureSize - 1; slot++) table.placeToken(0, slot);
+        }
+
+        @Actor
+        public void first(ZZZ_Result r) {
+            r.r1 = table.placeToken(0, featureSize - 1);
+        }
+
+        @Actor
+        public void second(ZZZ_Result r) {
+            r.r2 = table.placeToken(0, featureSize);
+        }
+
+        @Arbiter
+        public void arbiter(ZZZ_Result r) {
+            r.r3 = StressEnv.invariantsHold(table) && table.tokenCount(0) == featureSize;
+        }
+    }
+
+    /**
+     * Validating a claim while the dealer replaces one of its cards: the version stamps must never let a claim
+     * through with the new card under an old token.
+     */
+    @JCStressTest
+    @Outcome(id = "0, true", expect = ACCEPTABLE, desc = "The claim saw the replacement and is stale.")
+    @Outcome(id = "1, true", expect = ACCEPTABLE, desc = "The claim was validated before the replacement.")
+    @Outcome(expect = FORBIDDEN, desc = "The claim mixed the old tokens with the new card.")
+    @State
+    public static class ClaimVsReplaceCard {
+
+        final StressTable table = StressEnv.fullTable();
+        final int newCard = StressEnv.ENV.config.tableSize;
+
+        public ClaimVsReplaceCard() {
+            for (int slot = 0; slot < 3; slot++) table.placeToken(0, slot);
+        }
+
+        @Actor
+        public void dealer() {
+            table.removeCard(1);
+            table.placeCard(newCard, 1);
+        }
+
+        @Actor
+        public void player(IZ_Result r) {
+            int[] cards = table.claimedCards(table.claim(0));
+            if (cards == null) r.r1 = 0;
+            else if (cards[0] == 0 && cards[1] == 1 && cards[2] == 2) r.r1 = 1;
+            else r.r1 = 2;
+        }
+
+        @Arbiter
+        public void arbiter(IZ_Result r) {
+            r.r2 = StressEnv.invariantsHold(table);
+        }
+    }
+}